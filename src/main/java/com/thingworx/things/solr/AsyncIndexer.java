@@ -0,0 +1,392 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import com.thingworx.logging.LogUtilities;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.slf4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Write-behind indexing: documents are put in a bounded in-memory queue and sent to Solr by a background worker,
+ * in batches of up to batchSize documents or every flushInterval milliseconds, whichever comes first.
+ * <p>
+ * When the queue is full the backpressure policy decides what happens to a new document: Block waits for room
+ * (up to the enqueue timeout), Drop discards it, and Spill appends it to a local file that the worker replays
+ * as soon as the queue is drained. Once a document is spilled, the following ones are spilled as well until the
+ * file is replayed, so that an older version of a document never reaches Solr after a newer one. Spilled documents
+ * are written in javabin, which keeps the types of their values (dates, atomic updates, ...).
+ */
+public class AsyncIndexer {
+    private static final Logger _logger = LogUtilities.getInstance().getApplicationLogger(AsyncIndexer.class);
+
+    public static final String Block = "Block";
+    public static final String Drop = "Drop";
+    public static final String Spill = "Spill";
+
+    private final Function<String, SolrClient> _clients;
+    private final Consumer<String> _onIndexed;
+    private final BlockingQueue<PendingDocument> _queue;
+    private final int _batchSize;
+    private final long _flushInterval;
+    private final int _commitWithin;
+    private final String _policy;
+    private final long _enqueueTimeout;
+    private final Thread _worker;
+    private volatile boolean _running = true;
+
+    private final Object _spillLock = new Object();
+    private File _spillFile;
+    private DataOutputStream _spillWriter;
+    // cores sent documents since the last commit, only used by the worker when commitWithin is disabled
+    private final Set<String> _uncommittedCores = new LinkedHashSet<>();
+
+    private final AtomicLong _enqueued = new AtomicLong();
+    private final AtomicLong _indexed = new AtomicLong();
+    private final AtomicLong _sent = new AtomicLong();
+    private final AtomicLong _failed = new AtomicLong();
+    private final AtomicLong _dropped = new AtomicLong();
+    private final AtomicLong _spilled = new AtomicLong();
+    private volatile long _lastFlushLatency = 0;
+    private volatile long _lastFlushTime = 0;
+    private volatile int _lastFlushSize = 0;
+
+    /**
+     * @param clients        client of each target core, with its concurrency limit and circuit breaker
+     * @param onIndexed      called with the core name after documents were sent to that core
+     * @param capacity       maximum number of documents waiting in memory
+     * @param batchSize      maximum number of documents per request
+     * @param flushInterval  maximum time (milliseconds) a document waits before its batch is sent
+     * @param commitWithin   time (milliseconds) within which Solr must commit each batch
+     * @param policy         {@link #Block}, {@link #Drop} or {@link #Spill}
+     * @param enqueueTimeout maximum time (milliseconds) the Block policy waits for room in the queue
+     */
+    public AsyncIndexer(Function<String, SolrClient> clients, Consumer<String> onIndexed, int capacity, int batchSize, long flushInterval,
+                        int commitWithin, String policy, long enqueueTimeout) {
+        this._clients = clients;
+        this._onIndexed = onIndexed;
+        this._queue = new ArrayBlockingQueue<>(capacity > 0 ? capacity : 10000);
+        this._batchSize = batchSize > 0 ? batchSize : 500;
+        this._flushInterval = flushInterval > 0 ? flushInterval : 1000;
+        this._commitWithin = commitWithin;
+        this._policy = policy;
+        this._enqueueTimeout = enqueueTimeout;
+
+        this._worker = new Thread(this::run, "SolrThing-AsyncIndexer");
+        this._worker.setDaemon(true);
+        this._worker.start();
+    }
+
+    public void enqueue(String coreName, SolrInputDocument doc) throws Exception {
+        PendingDocument pending = new PendingDocument(coreName, doc, null);
+        if (Spill.equalsIgnoreCase(this._policy)) {
+            synchronized (this._spillLock) {
+                // documents follow the ones already spilled until the spill file is replayed, to keep their order
+                if (this._spillFile != null || !this._queue.offer(pending)) {
+                    this.spill(pending);
+                }
+            }
+            this._enqueued.incrementAndGet();
+            return;
+        }
+        if (this._queue.offer(pending)) {
+            this._enqueued.incrementAndGet();
+            return;
+        }
+
+        if (Drop.equalsIgnoreCase(this._policy)) {
+            this._dropped.incrementAndGet();
+            _logger.warn("Indexing queue is full, dropping document for core " + coreName);
+        } else if (this._queue.offer(pending, this._enqueueTimeout, TimeUnit.MILLISECONDS)) {
+            this._enqueued.incrementAndGet();
+        } else {
+            throw new Exception("Indexing queue is full, the document for core " + coreName + " could not be queued within " + this._enqueueTimeout + " ms");
+        }
+    }
+
+    /**
+     * Has the worker send every document queued or spilled before this call, and commit them when commitWithin is
+     * disabled, then returns once they are sent.
+     *
+     * @param timeout maximum time (milliseconds) to wait for the documents to be sent
+     * @return the number of documents sent meanwhile
+     */
+    public int flush(long timeout) throws Exception {
+        long sentBefore = this._sent.get();
+        CountDownLatch done = new CountDownLatch(1);
+        long deadline = System.currentTimeMillis() + timeout;
+        if (!this._worker.isAlive() || !this._queue.offer(new PendingDocument(null, null, done), timeout, TimeUnit.MILLISECONDS)
+                || !done.await(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+            throw new Exception("The indexing queue could not be flushed within " + timeout + " ms");
+        }
+        return (int) (this._sent.get() - sentBefore);
+    }
+
+    public void close(long timeout) {
+        this._running = false;
+        try {
+            this._worker.join(timeout);
+        } catch (InterruptedException exceptionError) {
+            Thread.currentThread().interrupt();
+        }
+        if (this._worker.isAlive()) {
+            _logger.warn("Indexing queue was not drained on shutdown, " + this._queue.size() + " documents were not sent");
+        }
+        synchronized (this._spillLock) {
+            this.closeSpillWriter();
+            if (this._spillFile != null) {
+                _logger.warn("Spilled documents were not replayed on shutdown and remain in " + this._spillFile.getAbsolutePath());
+            }
+        }
+    }
+
+    private void run() {
+        List<PendingDocument> batch = new ArrayList<>();
+        long deadline = 0;
+        while (this._running || !this._queue.isEmpty()) {
+            CountDownLatch flushed = null;
+            try {
+                long wait = batch.isEmpty() ? this._flushInterval : deadline - System.currentTimeMillis();
+                PendingDocument pending = wait > 0 ? this._queue.poll(wait, TimeUnit.MILLISECONDS) : null;
+                while (pending != null) {
+                    if (pending.flushed != null) {
+                        flushed = pending.flushed;
+                        break;
+                    }
+                    if (batch.isEmpty()) {
+                        deadline = System.currentTimeMillis() + this._flushInterval;
+                    }
+                    batch.add(pending);
+                    pending = batch.size() < this._batchSize ? this._queue.poll() : null;
+                }
+                if (!batch.isEmpty() && (flushed != null || batch.size() >= this._batchSize || System.currentTimeMillis() >= deadline || !this._running)) {
+                    this.send(batch);
+                    batch.clear();
+                }
+                if (flushed != null) {
+                    this.replaySpill();
+                    this.commit();
+                } else if (batch.isEmpty() && this._queue.isEmpty() && this._running) {
+                    this.replaySpill();
+                }
+            } catch (InterruptedException exceptionError) {
+                break;
+            } catch (Exception exceptionError) {
+                _logger.error("Error in indexing queue worker: " + exceptionError.getMessage());
+            } finally {
+                if (flushed != null) {
+                    flushed.countDown();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            this.send(batch);
+        }
+    }
+
+    private void send(List<PendingDocument> batch) {
+        Map<String, List<SolrInputDocument>> docsByCore = new LinkedHashMap<>();
+        for (PendingDocument pending : batch) {
+            docsByCore.computeIfAbsent(pending.coreName, core -> new ArrayList<>()).add(pending.doc);
+        }
+
+        long timeStart = System.currentTimeMillis();
+        for (Map.Entry<String, List<SolrInputDocument>> entry : docsByCore.entrySet()) {
+            try {
+                if (this._commitWithin > 0) {
+                    this._clients.apply(entry.getKey()).add(entry.getValue(), this._commitWithin);
+                } else {
+                    this._clients.apply(entry.getKey()).add(entry.getValue());
+                    this._uncommittedCores.add(entry.getKey());
+                }
+                this._indexed.addAndGet(entry.getValue().size());
+                this._onIndexed.accept(entry.getKey());
+            } catch (Exception exceptionError) {
+                this._failed.addAndGet(entry.getValue().size());
+                _logger.error("Error indexing " + entry.getValue().size() + " queued documents in core " + entry.getKey() + ": " + exceptionError.getMessage());
+            }
+        }
+        this._sent.addAndGet(batch.size());
+        this._lastFlushLatency = System.currentTimeMillis() - timeStart;
+        this._lastFlushTime = System.currentTimeMillis();
+        this._lastFlushSize = batch.size();
+    }
+
+    /**
+     * Commits the cores sent documents without commitWithin, so that a flush makes them visible.
+     */
+    private void commit() {
+        for (String coreName : this._uncommittedCores) {
+            try {
+                this._clients.apply(coreName).commit();
+                this._onIndexed.accept(coreName);
+            } catch (Exception exceptionError) {
+                _logger.error("Error committing the queued documents of core " + coreName + ": " + exceptionError.getMessage());
+            }
+        }
+        this._uncommittedCores.clear();
+    }
+
+    /**
+     * Appends a document to the spill file: the core name, then the length and the javabin encoding of the document.
+     */
+    private void spill(PendingDocument pending) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JavaBinCodec codec = new JavaBinCodec()) {
+            codec.marshal(pending.doc, bytes);
+        }
+
+        synchronized (this._spillLock) {
+            if (this._spillWriter == null) {
+                this._spillFile = File.createTempFile("solrthing-spill-", ".javabin");
+                this._spillWriter = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this._spillFile)));
+            }
+            this._spillWriter.writeUTF(pending.coreName);
+            this._spillWriter.writeInt(bytes.size());
+            bytes.writeTo(this._spillWriter);
+            this._spillWriter.flush();
+        }
+        this._spilled.incrementAndGet();
+    }
+
+    private void replaySpill() throws IOException {
+        File spillFile;
+        synchronized (this._spillLock) {
+            if (this._spillFile == null) {
+                return;
+            }
+            this.closeSpillWriter();
+            spillFile = this._spillFile;
+            this._spillFile = null;
+        }
+
+        List<PendingDocument> batch = new ArrayList<>();
+        try (DataInputStream reader = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile)))) {
+            while (true) {
+                String coreName;
+                try {
+                    coreName = reader.readUTF();
+                } catch (EOFException endOfFile) {
+                    break;
+                }
+                byte[] bytes = new byte[reader.readInt()];
+                reader.readFully(bytes);
+                SolrInputDocument doc;
+                try (JavaBinCodec codec = new JavaBinCodec()) {
+                    doc = (SolrInputDocument) codec.unmarshal(new ByteArrayInputStream(bytes));
+                }
+                batch.add(new PendingDocument(coreName, doc, null));
+                this._spilled.decrementAndGet();
+                if (batch.size() >= this._batchSize) {
+                    this.send(batch);
+                    batch.clear();
+                }
+            }
+        } catch (Exception exceptionError) {
+            // the file is kept, so that the documents it still holds are not lost
+            File failedFile = new File(spillFile.getAbsolutePath() + ".failed");
+            Files.move(spillFile.toPath(), failedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            _logger.error("Error replaying spilled documents, the spill file was kept as " + failedFile.getAbsolutePath() + ": " + exceptionError.getMessage());
+            if (!batch.isEmpty()) {
+                this.send(batch);
+            }
+            return;
+        }
+        if (!batch.isEmpty()) {
+            this.send(batch);
+        }
+        Files.deleteIfExists(spillFile.toPath());
+    }
+
+    private void closeSpillWriter() {
+        if (this._spillWriter != null) {
+            try {
+                this._spillWriter.close();
+            } catch (IOException exceptionError) {
+                _logger.warn("Error closing spill file: " + exceptionError.getMessage());
+            }
+            this._spillWriter = null;
+        }
+    }
+
+    public int getQueueDepth() {
+        return this._queue.size();
+    }
+
+    public long getEnqueuedCount() {
+        return this._enqueued.get();
+    }
+
+    public long getIndexedCount() {
+        return this._indexed.get();
+    }
+
+    public long getFailedCount() {
+        return this._failed.get();
+    }
+
+    public long getDroppedCount() {
+        return this._dropped.get();
+    }
+
+    public long getSpilledCount() {
+        return this._spilled.get();
+    }
+
+    public long getLastFlushLatency() {
+        return this._lastFlushLatency;
+    }
+
+    public long getLastFlushTime() {
+        return this._lastFlushTime;
+    }
+
+    public int getLastFlushSize() {
+        return this._lastFlushSize;
+    }
+
+    private static class PendingDocument {
+        final String coreName;
+        final SolrInputDocument doc;
+        // set on the marker queued by flush, counted down once everything queued before it is sent
+        final CountDownLatch flushed;
+
+        PendingDocument(String coreName, SolrInputDocument doc, CountDownLatch flushed) {
+            this.coreName = coreName;
+            this.doc = doc;
+            this.flushed = flushed;
+        }
+    }
+}
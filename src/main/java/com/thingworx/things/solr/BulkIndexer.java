@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import com.thingworx.logging.LogUtilities;
+import com.thingworx.metadata.FieldDefinition;
+import com.thingworx.types.BaseTypes;
+import com.thingworx.types.InfoTable;
+import com.thingworx.types.collections.ValueCollection;
+import com.thingworx.types.primitives.BooleanPrimitive;
+import com.thingworx.types.primitives.NumberPrimitive;
+import com.thingworx.types.primitives.StringPrimitive;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends documents to Solr in batches bounded by document count and estimated size, so that large InfoTables are
+ * never converted and sent as a single request.
+ * <p>
+ * Batches are added with commitWithin, letting Solr schedule the commit; when commitWithin is disabled a soft commit
+ * is issued once all batches are sent. A failed batch is recorded and the following batches are still sent.
+ */
+public class BulkIndexer {
+    private static final Logger _logger = LogUtilities.getInstance().getApplicationLogger(BulkIndexer.class);
+
+    private final SolrClient _server;
+    private final int _batchSize;
+    private final long _maxBatchBytes;
+    private final int _commitWithin;
+
+    private final List<SolrInputDocument> _batch = new ArrayList<>();
+    private long _batchBytes = 0;
+    private final InfoTable _result;
+    private int _batchCount = 0;
+    private long _indexedCount = 0;
+    private long _failedCount = 0;
+
+    /**
+     * @param server        client of the target core
+     * @param batchSize     maximum number of documents per request
+     * @param maxBatchBytes maximum estimated size of the documents of a request
+     * @param commitWithin  time (milliseconds) within which Solr must commit each batch, 0 to soft commit at the end
+     */
+    public BulkIndexer(SolrClient server, int batchSize, long maxBatchBytes, int commitWithin) {
+        this._server = server;
+        this._batchSize = batchSize > 0 ? batchSize : 1000;
+        this._maxBatchBytes = maxBatchBytes > 0 ? maxBatchBytes : Long.MAX_VALUE;
+        this._commitWithin = commitWithin;
+
+        this._result = new InfoTable();
+        this._result.addField(new FieldDefinition("batch", BaseTypes.NUMBER));
+        this._result.addField(new FieldDefinition("documents", BaseTypes.NUMBER));
+        this._result.addField(new FieldDefinition("bytes", BaseTypes.NUMBER));
+        this._result.addField(new FieldDefinition("succeeded", BaseTypes.BOOLEAN));
+        this._result.addField(new FieldDefinition("elapsed", BaseTypes.NUMBER));
+        this._result.addField(new FieldDefinition("error", BaseTypes.STRING));
+    }
+
+    public void add(SolrInputDocument doc) {
+        long size = estimateSize(doc);
+        if (!this._batch.isEmpty() && this._batchBytes + size > this._maxBatchBytes) {
+            this.flush();
+        }
+        this._batch.add(doc);
+        this._batchBytes += size;
+        if (this._batch.size() >= this._batchSize) {
+            this.flush();
+        }
+    }
+
+    public void flush() {
+        if (this._batch.isEmpty()) {
+            return;
+        }
+
+        ValueCollection values = new ValueCollection();
+        values.put("batch", new NumberPrimitive((Number) (++this._batchCount)));
+        values.put("documents", new NumberPrimitive((Number) this._batch.size()));
+        values.put("bytes", new NumberPrimitive((Number) this._batchBytes));
+
+        long timeStart = System.currentTimeMillis();
+        try {
+            if (this._commitWithin > 0) {
+                this._server.add(this._batch, this._commitWithin);
+            } else {
+                this._server.add(this._batch);
+            }
+            this._indexedCount += this._batch.size();
+            values.put("succeeded", new BooleanPrimitive(true));
+        } catch (Exception exceptionError) {
+            this._failedCount += this._batch.size();
+            values.put("succeeded", new BooleanPrimitive(false));
+            values.put("error", new StringPrimitive(exceptionError.getMessage()));
+            _logger.error("Error indexing batch " + this._batchCount + ": " + exceptionError.getMessage());
+        }
+        values.put("elapsed", new NumberPrimitive((Number) (System.currentTimeMillis() - timeStart)));
+        this._result.addRow(values);
+
+        this._batch.clear();
+        this._batchBytes = 0;
+    }
+
+    /**
+     * Sends the pending documents and, when commitWithin is disabled, soft commits them.
+     *
+     * @return one row per batch with its document count, size, outcome and duration
+     */
+    public InfoTable finish() throws Exception {
+        this.flush();
+        if (this._commitWithin <= 0 && this._indexedCount > 0) {
+            this._server.commit(true, true, true);
+        }
+        return this._result;
+    }
+
+    public long getIndexedCount() {
+        return this._indexedCount;
+    }
+
+    public long getFailedCount() {
+        return this._failedCount;
+    }
+
+    protected static long estimateSize(SolrInputDocument doc) {
+        long size = 32;
+        for (SolrInputField field : doc) {
+            size += 16 + field.getName().length();
+            for (Object value : field) {
+                size += value instanceof String ? ((String) value).length() : 16;
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+/**
+ * Write generation of a core, shared by the caches of query results, counts and suggestions.
+ * <p>
+ * A cache takes the generation before asking Solr and only caches the answer if it did not change meanwhile. Writes
+ * committed within a delay (commitWithin) keep the core settling until then: nothing is cached meanwhile, and the
+ * generation changes again once it is over, as answers computed before are stale. Not thread safe, callers guard it
+ * with the lock of their cache.
+ */
+class CacheGeneration {
+    private long _generation = 0;
+    private long _settledAt = 0;
+    private boolean _settling = false;
+
+    long current() {
+        if (this._settling && System.nanoTime() - this._settledAt >= 0) {
+            // the written documents are now searchable, the answers computed before are stale
+            this._settling = false;
+            this._generation++;
+        }
+        return this._generation;
+    }
+
+    /**
+     * Whether an answer computed at the given generation can be cached.
+     */
+    boolean accepts(long generation) {
+        return this.current() == generation && !this._settling;
+    }
+
+    void advance(long settleDelay) {
+        this._generation++;
+        if (settleDelay > 0) {
+            long settledAt = System.nanoTime() + settleDelay * 1000000L;
+            this._settledAt = this._settling && this._settledAt - settledAt > 0 ? this._settledAt : settledAt;
+            this._settling = true;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+/**
+ * Circuit breaker of a core, over a sliding window of the outcomes of its last calls.
+ * <p>
+ * Closed, every call goes through. Once the window holds at least minimumCalls outcomes and the rate of failed
+ * calls or of calls slower than slowCallThreshold reaches its threshold, the breaker opens: calls are rejected
+ * without reaching Solr for openDuration. It then lets halfOpenProbes calls through; if they all succeed fast the
+ * breaker closes again, otherwise it opens for another openDuration.
+ */
+public class CircuitBreaker {
+    public static final String Closed = "Closed";
+    public static final String Open = "Open";
+    public static final String HalfOpen = "HalfOpen";
+
+    private final String _coreName;
+    private final double _failureRateThreshold;
+    private final long _slowCallThreshold;
+    private final double _slowCallRateThreshold;
+    private final int _minimumCalls;
+    private final long _openDuration;
+    private final int _halfOpenProbes;
+
+    private final boolean[] _failed;
+    private final boolean[] _slow;
+    private int _next = 0;
+    private int _calls = 0;
+    private int _failures = 0;
+    private int _slowCalls = 0;
+
+    private String _state = Closed;
+    private long _openUntil = 0;
+    private int _probesInFlight = 0;
+    private int _probeSuccesses = 0;
+    private long _rejected = 0;
+    private long _openings = 0;
+
+    /**
+     * @param failureRateThreshold  percentage of failed calls opening the breaker
+     * @param slowCallThreshold     duration (milliseconds) from which a call is slow
+     * @param slowCallRateThreshold percentage of slow calls opening the breaker
+     * @param windowSize            number of recent calls the rates are computed on
+     * @param minimumCalls          number of calls needed before the rates are considered
+     * @param openDuration          time (milliseconds) the breaker stays open before probing the core again
+     * @param halfOpenProbes        number of successful probe calls closing the breaker
+     */
+    public CircuitBreaker(String coreName, double failureRateThreshold, long slowCallThreshold, double slowCallRateThreshold,
+                          int windowSize, int minimumCalls, long openDuration, int halfOpenProbes) {
+        this._coreName = coreName;
+        this._failureRateThreshold = failureRateThreshold;
+        this._slowCallThreshold = slowCallThreshold;
+        this._slowCallRateThreshold = slowCallRateThreshold;
+        this._failed = new boolean[Math.max(1, windowSize)];
+        this._slow = new boolean[Math.max(1, windowSize)];
+        this._minimumCalls = Math.max(1, Math.min(minimumCalls, this._failed.length));
+        this._openDuration = openDuration;
+        this._halfOpenProbes = Math.max(1, halfOpenProbes);
+    }
+
+    /**
+     * Returns whether a call may go through; every allowed call must be followed by a call to {@link #record}.
+     */
+    public synchronized boolean allowRequest() {
+        if (Open.equals(this._state)) {
+            if (System.currentTimeMillis() < this._openUntil) {
+                this._rejected++;
+                return false;
+            }
+            this._state = HalfOpen;
+            this._probesInFlight = 0;
+            this._probeSuccesses = 0;
+        }
+        if (HalfOpen.equals(this._state)) {
+            if (this._probesInFlight >= this._halfOpenProbes - this._probeSuccesses) {
+                this._rejected++;
+                return false;
+            }
+            this._probesInFlight++;
+        }
+        return true;
+    }
+
+    /**
+     * @param latency duration (milliseconds) of the call
+     * @param failed  true if the call failed in a way showing the core is unhealthy
+     */
+    public synchronized void record(long latency, boolean failed) {
+        boolean slow = latency >= this._slowCallThreshold;
+        if (HalfOpen.equals(this._state)) {
+            this._probesInFlight--;
+            if (failed || slow) {
+                this.open();
+            } else if (++this._probeSuccesses >= this._halfOpenProbes) {
+                this.close();
+            }
+            return;
+        }
+        if (Open.equals(this._state)) {
+            return;
+        }
+
+        if (this._calls == this._failed.length) {
+            this._failures -= this._failed[this._next] ? 1 : 0;
+            this._slowCalls -= this._slow[this._next] ? 1 : 0;
+        } else {
+            this._calls++;
+        }
+        this._failed[this._next] = failed;
+        this._slow[this._next] = slow;
+        this._failures += failed ? 1 : 0;
+        this._slowCalls += slow ? 1 : 0;
+        this._next = (this._next + 1) % this._failed.length;
+
+        if (this._calls >= this._minimumCalls && (this.getFailureRate() >= this._failureRateThreshold || this.getSlowCallRate() >= this._slowCallRateThreshold)) {
+            this.open();
+        }
+    }
+
+    private void open() {
+        this._state = Open;
+        this._openUntil = System.currentTimeMillis() + this._openDuration;
+        this._openings++;
+    }
+
+    private void close() {
+        this._state = Closed;
+        this._next = 0;
+        this._calls = 0;
+        this._failures = 0;
+        this._slowCalls = 0;
+    }
+
+    public String getCoreName() {
+        return this._coreName;
+    }
+
+    public synchronized String getState() {
+        return this._state;
+    }
+
+    /**
+     * @return the percentage of failed calls in the window
+     */
+    public synchronized double getFailureRate() {
+        return this._calls > 0 ? 100.0D * this._failures / this._calls : 0;
+    }
+
+    /**
+     * @return the percentage of slow calls in the window
+     */
+    public synchronized double getSlowCallRate() {
+        return this._calls > 0 ? 100.0D * this._slowCalls / this._calls : 0;
+    }
+
+    public synchronized int getCalls() {
+        return this._calls;
+    }
+
+    public synchronized long getRejected() {
+        return this._rejected;
+    }
+
+    public synchronized long getOpenings() {
+        return this._openings;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.util.NamedList;
+
+import java.io.IOException;
+
+/**
+ * Binds a shared, collection-aware SolrClient (cloud or load balanced) to a single core/collection, so that services
+ * can keep calling server.query(solrQuery) without passing the collection around.
+ * Closing this client does not close the shared client, which is owned by the {@link SolrClientRegistry}.
+ */
+public class CollectionSolrClient extends SolrClient {
+    private static final long serialVersionUID = 1L;
+    private final SolrClient _delegate;
+    private final String _collection;
+
+    public CollectionSolrClient(SolrClient delegate, String collection) {
+        this._delegate = delegate;
+        this._collection = collection;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes") // raw in the SolrClient signature
+    public NamedList<Object> request(SolrRequest request, String collection) throws SolrServerException, IOException {
+        return this._delegate.request(request, collection != null ? collection : this._collection);
+    }
+
+    public String getCollection() {
+        return this._collection;
+    }
+
+    @Override
+    public void close() {
+    }
+}
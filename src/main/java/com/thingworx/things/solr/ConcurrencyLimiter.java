@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import org.apache.solr.client.solrj.SolrServerException;
+
+/**
+ * Bounds the number of requests in flight to a core. A request over the limit waits up to the queue timeout for a
+ * free slot and is then rejected, instead of piling up on a saturated Solr.
+ * <p>
+ * When adaptive, the limit follows AIMD (additive increase, multiplicative decrease), like TCP congestion control:
+ * it grows by about one per limit's worth of fast requests while the limit is actually used, and is cut by a quarter
+ * when a request is slower than the target latency or fails because Solr is overloaded, at most once per target
+ * latency so that a single burst of slow requests only counts once.
+ */
+public class ConcurrencyLimiter {
+    private static final double BACKOFF = 0.75D;
+
+    private final String _coreName;
+    private final int _minLimit;
+    private final int _maxLimit;
+    private final boolean _adaptive;
+    private final long _targetLatency;
+    private final long _queueTimeout;
+
+    private double _limit;
+    private int _inFlight = 0;
+    private int _waiting = 0;
+    private int _maxInFlight = 0;
+    private long _rejected = 0;
+    private long _lastDecrease = 0;
+
+    /**
+     * @param minLimit      lowest limit the adaptive limit can drop to
+     * @param maxLimit      initial and highest limit
+     * @param adaptive      adapt the limit to the observed latency, otherwise the limit stays at maxLimit
+     * @param targetLatency latency (milliseconds) above which a request signals an overloaded core
+     * @param queueTimeout  time (milliseconds) a request waits for a free slot, 0 to reject it immediately
+     */
+    public ConcurrencyLimiter(String coreName, int minLimit, int maxLimit, boolean adaptive, long targetLatency, long queueTimeout) {
+        this._coreName = coreName;
+        this._maxLimit = Math.max(1, maxLimit);
+        this._minLimit = Math.max(1, Math.min(minLimit, this._maxLimit));
+        this._adaptive = adaptive;
+        this._targetLatency = targetLatency;
+        this._queueTimeout = queueTimeout;
+        this._limit = this._maxLimit;
+    }
+
+    /**
+     * Takes a slot, waiting up to the queue timeout for one; {@link #release} must be called once the request is done.
+     */
+    public synchronized void acquire() throws SolrServerException {
+        if (this._inFlight < (int) this._limit) {
+            this.take();
+            return;
+        }
+        long deadline = System.currentTimeMillis() + this._queueTimeout;
+        this._waiting++;
+        try {
+            while (this._inFlight >= (int) this._limit) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    this._rejected++;
+                    throw new SolrServerException("Too many concurrent requests to core " + this._coreName + " (limit " + (int) this._limit
+                            + "), request rejected after waiting " + this._queueTimeout + " ms");
+                }
+                this.wait(remaining);
+            }
+        } catch (InterruptedException exceptionError) {
+            Thread.currentThread().interrupt();
+            throw new SolrServerException("Interrupted while waiting for a free slot on core " + this._coreName, exceptionError);
+        } finally {
+            this._waiting--;
+        }
+        this.take();
+    }
+
+    /**
+     * Takes a slot only if one is free right away, returning whether it did; a taken slot must be released.
+     */
+    public synchronized boolean tryAcquire() {
+        if (this._inFlight < (int) this._limit) {
+            this.take();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param latency    duration (milliseconds) of the request
+     * @param overloaded true if the request failed because Solr is overloaded (timeout, HTTP 503 or 429)
+     */
+    public synchronized void release(long latency, boolean overloaded) {
+        this._inFlight--;
+        if (this._adaptive) {
+            long now = System.currentTimeMillis();
+            if (overloaded || latency > this._targetLatency) {
+                if (now - this._lastDecrease >= this._targetLatency) {
+                    this._limit = Math.max(this._minLimit, this._limit * BACKOFF);
+                    this._lastDecrease = now;
+                }
+            } else if (this._inFlight + 1 >= this._limit / 2) {
+                this._limit = Math.min(this._maxLimit, this._limit + 1.0D / this._limit);
+            }
+        }
+        this.notifyAll();
+    }
+
+    private void take() {
+        this._inFlight++;
+        this._maxInFlight = Math.max(this._maxInFlight, this._inFlight);
+    }
+
+    public String getCoreName() {
+        return this._coreName;
+    }
+
+    public synchronized int getLimit() {
+        return (int) this._limit;
+    }
+
+    public synchronized int getInFlight() {
+        return this._inFlight;
+    }
+
+    public synchronized int getWaiting() {
+        return this._waiting;
+    }
+
+    public synchronized int getMaxInFlight() {
+        return this._maxInFlight;
+    }
+
+    public synchronized long getRejected() {
+        return this._rejected;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Short lived cache of document counts, so that widgets polling the same count every few seconds only reach Solr
+ * once per TTL. Writes to a core invalidate its counts; a count computed while a write happened, or before the
+ * written documents are searchable, is not cached (see {@link CacheGeneration}).
+ */
+public class CountCache {
+    private final long _ttl;
+    private final int _maxEntries;
+    private final Map<String, Entry> _entries = new ConcurrentHashMap<>();
+    // guarded by itself, and guards the writes to the entries
+    private final Map<String, CacheGeneration> _generations = new HashMap<>();
+
+    /**
+     * @param ttl        time to live (milliseconds) of a count
+     * @param maxEntries maximum number of cached counts
+     */
+    public CountCache(long ttl, int maxEntries) {
+        this._ttl = ttl;
+        this._maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns the cached count, or null if there is no live entry for this key.
+     */
+    public Long get(String key) {
+        Entry entry = this._entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt < System.currentTimeMillis()) {
+            this._entries.remove(key, entry);
+            return null;
+        }
+        return entry.count;
+    }
+
+    /**
+     * Returns the write generation of a core, to be passed to {@link #put} once the count is computed.
+     */
+    public long getGeneration(String coreName) {
+        synchronized (this._generations) {
+            return this.generation(coreName).current();
+        }
+    }
+
+    public void put(String key, String coreName, long count, long generation) {
+        // under the lock, so that an invalidation cannot slip between the check and the put
+        synchronized (this._generations) {
+            if (!this.generation(coreName).accepts(generation)) {
+                return;
+            }
+            if (this._entries.size() >= this._maxEntries) {
+                long now = System.currentTimeMillis();
+                this._entries.values().removeIf(entry -> entry.expiresAt < now);
+                if (this._entries.size() >= this._maxEntries) {
+                    this._entries.clear();
+                }
+            }
+            this._entries.put(key, new Entry(coreName, count, System.currentTimeMillis() + this._ttl));
+        }
+    }
+
+    /**
+     * Drops every cached count of the given core, or the whole cache when the core is null or empty, and caches no
+     * count of the core until the given delay is over.
+     *
+     * @param settleDelay time (milliseconds) until the written documents are searchable, e.g. their commitWithin
+     */
+    public void invalidate(String coreName, long settleDelay) {
+        synchronized (this._generations) {
+            if (coreName == null || coreName.length() == 0) {
+                this._generations.values().forEach(generation -> generation.advance(settleDelay));
+            } else {
+                this.generation(coreName).advance(settleDelay);
+            }
+            if (coreName == null || coreName.length() == 0) {
+                this._entries.clear();
+            } else {
+                this._entries.values().removeIf(entry -> coreName.equals(entry.coreName));
+            }
+        }
+    }
+
+    private CacheGeneration generation(String coreName) {
+        return this._generations.computeIfAbsent(coreName != null ? coreName : "", core -> new CacheGeneration());
+    }
+
+    private static class Entry {
+        final String coreName;
+        final long count;
+        final long expiresAt;
+
+        Entry(String coreName, long count, long expiresAt) {
+            this.coreName = coreName;
+            this.count = count;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import com.thingworx.metadata.FieldDefinition;
+import com.thingworx.types.BaseTypes;
+import com.thingworx.types.InfoTable;
+import com.thingworx.types.collections.ValueCollection;
+import com.thingworx.types.primitives.DatetimePrimitive;
+import com.thingworx.types.primitives.IPrimitiveType;
+import com.thingworx.types.primitives.InfoTablePrimitive;
+import com.thingworx.types.primitives.NumberPrimitive;
+import com.thingworx.types.primitives.StringPrimitive;
+import org.apache.solr.client.solrj.response.FacetField;
+import org.apache.solr.client.solrj.response.PivotField;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.response.RangeFacet;
+import org.apache.solr.common.util.NamedList;
+import org.joda.time.DateTime;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts the facets of a query response into InfoTables.
+ * <p>
+ * The result has one row per facet, with its type (field, range, pivot or json), its name and its buckets. Every
+ * bucket has a value and a count; JSON facet buckets also have one column per aggregation (sum, avg, min, max,
+ * unique...), and pivot or nested JSON facets are returned in the facets column of their parent bucket, using the
+ * same structure as the result.
+ */
+public class FacetResults {
+    public static final String Field = "field";
+    public static final String Range = "range";
+    public static final String Pivot = "pivot";
+    public static final String Json = "json";
+
+    private static final String JSON_FACETS = "facets";
+    private static final String JSON_BUCKETS = "buckets";
+    private static final String JSON_VALUE = "val";
+    private static final String JSON_COUNT = "count";
+
+    protected FacetResults() {
+    }
+
+    public static InfoTable toInfoTable(QueryResponse response) {
+        InfoTable result = createFacetTable();
+
+        List<FacetField> fieldFacets = response.getFacetFields();
+        if (fieldFacets != null) {
+            for (FacetField fieldFacet : fieldFacets) {
+                InfoTable buckets = createBucketTable();
+                for (FacetField.Count count : fieldFacet.getValues()) {
+                    buckets.addRow(bucket(count.getName(), count.getCount()));
+                }
+                result.addRow(facet(Field, fieldFacet.getName(), buckets));
+            }
+        }
+
+        if (response.getFacetRanges() != null) {
+            for (RangeFacet<?, ?> rangeFacet : response.getFacetRanges()) {
+                InfoTable buckets = createBucketTable();
+                for (RangeFacet.Count count : rangeFacet.getCounts()) {
+                    buckets.addRow(bucket(count.getValue(), count.getCount()));
+                }
+                result.addRow(facet(Range, rangeFacet.getName(), buckets));
+            }
+        }
+
+        NamedList<List<PivotField>> pivotFacets = response.getFacetPivot();
+        if (pivotFacets != null) {
+            for (Map.Entry<String, List<PivotField>> pivotFacet : pivotFacets) {
+                result.addRow(facet(Pivot, pivotFacet.getKey(), toPivotBuckets(pivotFacet.getValue())));
+            }
+        }
+
+        Object jsonFacets = response.getResponse().get(JSON_FACETS);
+        if (jsonFacets instanceof NamedList) {
+            InfoTable buckets = createBucketTable();
+            buckets.addRow(toJsonBucket((NamedList<?>) jsonFacets, buckets));
+            result.addRow(facet(Json, "", buckets));
+        }
+        return result;
+    }
+
+    private static InfoTable toPivotBuckets(List<PivotField> pivotFields) {
+        InfoTable buckets = createBucketTable();
+        for (PivotField pivotField : pivotFields) {
+            ValueCollection values = bucket(String.valueOf(pivotField.getValue()), pivotField.getCount());
+            if (pivotField.getPivot() != null && !pivotField.getPivot().isEmpty()) {
+                InfoTable children = createFacetTable();
+                children.addRow(facet(Pivot, pivotField.getPivot().get(0).getField(), toPivotBuckets(pivotField.getPivot())));
+                values.put(JSON_FACETS, new InfoTablePrimitive(children));
+            }
+            buckets.addRow(values);
+        }
+        return buckets;
+    }
+
+    /**
+     * Converts a JSON facet bucket (or the root of the JSON facet response): its aggregations become columns of the
+     * bucket table, and its sub-facets rows of its facets table.
+     */
+    private static ValueCollection toJsonBucket(NamedList<?> bucket, InfoTable buckets) {
+        ValueCollection values = new ValueCollection();
+        InfoTable children = null;
+        for (Map.Entry<String, ?> entry : bucket) {
+            String name = entry.getKey();
+            Object value = entry.getValue();
+            if (JSON_VALUE.equals(name)) {
+                values.put("value", new StringPrimitive(toText(value)));
+            } else if (JSON_COUNT.equals(name) && value instanceof Number) {
+                values.put("count", new NumberPrimitive((Number) value));
+            } else if (value instanceof NamedList) {
+                if (children == null) {
+                    children = createFacetTable();
+                }
+                InfoTable subBuckets = createBucketTable();
+                Object subBucketList = ((NamedList<?>) value).get(JSON_BUCKETS);
+                if (subBucketList instanceof List) {
+                    for (Object subBucket : (List<?>) subBucketList) {
+                        if (subBucket instanceof NamedList) {
+                            subBuckets.addRow(toJsonBucket((NamedList<?>) subBucket, subBuckets));
+                        }
+                    }
+                } else {
+                    subBuckets.addRow(toJsonBucket((NamedList<?>) value, subBuckets));
+                }
+                children.addRow(facet(Json, name, subBuckets));
+            } else if (value != null) {
+                IPrimitiveType<?, ?> primitive = toPrimitive(value);
+                if (buckets.getDataShape().getFieldDefinition(name) == null) {
+                    buckets.addField(new FieldDefinition(name, primitive.getBaseType()));
+                }
+                values.put(name, primitive);
+            }
+        }
+        if (children != null) {
+            values.put(JSON_FACETS, new InfoTablePrimitive(children));
+        }
+        return values;
+    }
+
+    private static InfoTable createFacetTable() {
+        InfoTable facets = new InfoTable();
+        facets.addField(new FieldDefinition("type", BaseTypes.STRING));
+        facets.addField(new FieldDefinition("name", BaseTypes.STRING));
+        facets.addField(new FieldDefinition("buckets", BaseTypes.INFOTABLE));
+        return facets;
+    }
+
+    private static InfoTable createBucketTable() {
+        InfoTable buckets = new InfoTable();
+        buckets.addField(new FieldDefinition("value", BaseTypes.STRING));
+        buckets.addField(new FieldDefinition("count", BaseTypes.NUMBER));
+        buckets.addField(new FieldDefinition(JSON_FACETS, BaseTypes.INFOTABLE));
+        return buckets;
+    }
+
+    private static ValueCollection facet(String type, String name, InfoTable buckets) {
+        ValueCollection values = new ValueCollection();
+        values.put("type", new StringPrimitive(type));
+        values.put("name", new StringPrimitive(name));
+        values.put("buckets", new InfoTablePrimitive(buckets));
+        return values;
+    }
+
+    private static ValueCollection bucket(String value, long count) {
+        ValueCollection values = new ValueCollection();
+        values.put("value", new StringPrimitive(value));
+        values.put("count", new NumberPrimitive((Number) count));
+        return values;
+    }
+
+    private static IPrimitiveType<?, ?> toPrimitive(Object value) {
+        if (value instanceof Number) {
+            return new NumberPrimitive((Number) value);
+        } else if (value instanceof Date) {
+            return new DatetimePrimitive(new DateTime(value));
+        }
+        return new StringPrimitive(toText(value));
+    }
+
+    private static String toText(Object value) {
+        return value instanceof Date ? ((Date) value).toInstant().toString() : String.valueOf(value);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs the same query on several cores concurrently, on a bounded pool of threads, and merges their documents.
+ * <p>
+ * All cores share one deadline: the queries still running when it expires are aborted and reported as failed,
+ * while the documents of the cores that answered in time are still merged. Documents are merged by the requested
+ * sort clauses, or by descending score when there are none, and each keeps the name of its source core.
+ */
+public class FederatedSearch {
+    public static final String SCORE = "score";
+
+    private final ExecutorService _executor;
+
+    /**
+     * @param threads maximum number of cores queried at the same time, across all federated queries
+     */
+    public FederatedSearch(int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "SolrThing-Federation-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        this._executor = executor;
+    }
+
+    /**
+     * @param coreNames cores to query
+     * @param clients   returns the client of a core
+     * @param query     query sent to every core, must request the score when there are no sort clauses
+     * @param timeout   deadline (milliseconds) of the whole search
+     * @return one result per core, in the order of coreNames
+     */
+    public List<CoreResult> search(List<String> coreNames, Function<String, SolrClient> clients, SolrQuery query, long timeout) throws InterruptedException {
+        List<Callable<CoreResult>> tasks = new ArrayList<>();
+        List<RequestAborter> aborters = new ArrayList<>();
+        for (String coreName : coreNames) {
+            RequestAborter aborter = new RequestAborter();
+            aborters.add(aborter);
+            tasks.add(() -> {
+                CoreResult result = new CoreResult(coreName);
+                long timeStart = System.currentTimeMillis();
+                try {
+                    result.documents = aborter.call(() -> clients.apply(coreName).query(query).getResults());
+                } finally {
+                    result.latency = System.currentTimeMillis() - timeStart;
+                }
+                return result;
+            });
+        }
+
+        List<Future<CoreResult>> futures = this._executor.invokeAll(tasks, timeout, TimeUnit.MILLISECONDS);
+        // the cancelled queries are only interrupted, which does not stop a blocking socket read
+        for (RequestAborter aborter : aborters) {
+            aborter.abort();
+        }
+        List<CoreResult> results = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            CoreResult result;
+            try {
+                result = futures.get(i).get();
+            } catch (CancellationException exceptionError) {
+                result = new CoreResult(coreNames.get(i));
+                result.latency = timeout;
+                result.error = "Deadline of " + timeout + " ms exceeded";
+            } catch (ExecutionException exceptionError) {
+                result = new CoreResult(coreNames.get(i));
+                Throwable cause = exceptionError.getCause() != null ? exceptionError.getCause() : exceptionError;
+                result.error = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * Merges the documents of every core in the given order and keeps the first maxItems.
+     */
+    public static List<SourcedDocument> merge(List<CoreResult> results, List<SolrQuery.SortClause> sortClauses, int maxItems) {
+        List<SourcedDocument> documents = new ArrayList<>();
+        for (CoreResult result : results) {
+            if (result.documents != null) {
+                for (SolrDocument document : result.documents) {
+                    documents.add(new SourcedDocument(result.coreName, document));
+                }
+            }
+        }
+        documents.sort(comparator(sortClauses));
+        return documents.size() > maxItems ? new ArrayList<>(documents.subList(0, maxItems)) : documents;
+    }
+
+    protected static Comparator<SourcedDocument> comparator(List<SolrQuery.SortClause> sortClauses) {
+        if (sortClauses.isEmpty()) {
+            return fieldComparator(SCORE, false);
+        }
+        Comparator<SourcedDocument> comparator = null;
+        for (SolrQuery.SortClause sortClause : sortClauses) {
+            Comparator<SourcedDocument> fieldComparator = fieldComparator(sortClause.getItem(), sortClause.getOrder() == SolrQuery.ORDER.asc);
+            comparator = comparator == null ? fieldComparator : comparator.thenComparing(fieldComparator);
+        }
+        return comparator;
+    }
+
+    /**
+     * Compares the values of a field, documents without a value always sort last like in Solr.
+     */
+    @SuppressWarnings("unchecked")
+    private static Comparator<SourcedDocument> fieldComparator(String fieldName, boolean ascending) {
+        return (left, right) -> {
+            Object leftValue = left.document.getFirstValue(fieldName);
+            Object rightValue = right.document.getFirstValue(fieldName);
+            if (leftValue == null || rightValue == null) {
+                return leftValue == null ? (rightValue == null ? 0 : 1) : -1;
+            }
+            int comparison;
+            if (leftValue instanceof Number && rightValue instanceof Number) {
+                comparison = Double.compare(((Number) leftValue).doubleValue(), ((Number) rightValue).doubleValue());
+            } else if (leftValue instanceof Comparable && leftValue.getClass() == rightValue.getClass()) {
+                comparison = ((Comparable<Object>) leftValue).compareTo(rightValue);
+            } else {
+                comparison = String.valueOf(leftValue).compareTo(String.valueOf(rightValue));
+            }
+            return ascending ? comparison : -comparison;
+        };
+    }
+
+    public void close() {
+        this._executor.shutdownNow();
+    }
+
+    public static class CoreResult {
+        public final String coreName;
+        public SolrDocumentList documents;
+        public long latency;
+        public String error;
+
+        CoreResult(String coreName) {
+            this.coreName = coreName;
+        }
+    }
+
+    public static class SourcedDocument {
+        public final String coreName;
+        public final SolrDocument document;
+
+        SourcedDocument(String coreName, SolrDocument document) {
+            this.coreName = coreName;
+            this.document = document;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.util.automaton.LevenshteinAutomata;
+import org.apache.solr.client.solrj.util.ClientUtils;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.apache.lucene.analysis.en.EnglishAnalyzer.ENGLISH_STOP_WORDS_SET;
+
+/**
+ * Builds typo tolerant queries: the text is tokenized and every token becomes a fuzzy clause, all of which must
+ * match, e.g. "pump presure" gives +name:pump~2 +name:presure~2.
+ * <p>
+ * The analyzer is shared by all threads, Lucene keeping one token stream per thread, and the built query strings
+ * are kept in a small LRU cache, so that repeated terms (typeahead) are not analyzed again.
+ */
+public class FuzzyQueryBuilder {
+    private static final Analyzer ANALYZER = new StandardAnalyzer(ENGLISH_STOP_WORDS_SET);
+
+    private final Map<String, String> _queries;
+
+    /**
+     * @param maxEntries maximum number of query strings cached
+     */
+    public FuzzyQueryBuilder(int maxEntries) {
+        this._queries = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return this.size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param field        field searched
+     * @param text         text to search for, one fuzzy clause is built per token
+     * @param maxEdits     maximum edit distance of a token, 0 to 2
+     * @param defaultField whether the field is the default field (df) of the query and is omitted from the clauses
+     */
+    public String build(String field, String text, int maxEdits, boolean defaultField) throws IOException {
+        if (maxEdits < 0 || maxEdits > LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE) {
+            throw new IllegalArgumentException("maxEdits must be between 0 and " + LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE);
+        }
+        String key = field + '\u0000' + maxEdits + '\u0000' + defaultField + '\u0000' + text;
+        synchronized (this._queries) {
+            String query = this._queries.get(key);
+            if (query != null) {
+                return query;
+            }
+        }
+
+        StringBuilder query = new StringBuilder();
+        try (TokenStream tokens = ANALYZER.tokenStream(field, text)) {
+            CharTermAttribute term = tokens.addAttribute(CharTermAttribute.class);
+            tokens.reset();
+            while (tokens.incrementToken()) {
+                this.appendClause(query, field, term.toString(), maxEdits, defaultField);
+            }
+            tokens.end();
+        }
+        if (query.length() == 0) {
+            // only stop words: search the text as typed
+            this.appendClause(query, field, text.trim().toLowerCase(), maxEdits, defaultField);
+        }
+
+        synchronized (this._queries) {
+            this._queries.put(key, query.toString());
+        }
+        return query.toString();
+    }
+
+    private void appendClause(StringBuilder query, String field, String token, int maxEdits, boolean defaultField) {
+        if (query.length() > 0) {
+            query.append(' ');
+        }
+        query.append('+');
+        if (!defaultField) {
+            query.append(ClientUtils.escapeQueryChars(field)).append(':');
+        }
+        query.append(ClientUtils.escapeQueryChars(token)).append('~').append(maxEdits);
+    }
+}
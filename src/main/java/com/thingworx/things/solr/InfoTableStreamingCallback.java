@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import com.thingworx.types.InfoTable;
+import org.apache.solr.client.solrj.StreamingResponseCallback;
+import org.apache.solr.common.SolrDocument;
+
+/**
+ * Converts each document into an InfoTable row as soon as SolrJ parses it, so that query results are never
+ * buffered as a SolrDocumentList before being converted.
+ */
+public class InfoTableStreamingCallback extends StreamingResponseCallback {
+    private final InfoTable _infoTable;
+    private final RowMappingPlan _plan;
+    private final long _maxRows;
+    private long _numFound = 0;
+    private int _docLists = 0;
+    private long _conversionNanos = 0;
+
+    /**
+     * @param infoTable table receiving one row per document
+     * @param plan      mapping of the data shape of the table, selects and converts the fields of each document
+     * @param maxRows   maximum number of rows to add, further documents are ignored
+     */
+    public InfoTableStreamingCallback(InfoTable infoTable, RowMappingPlan plan, long maxRows) {
+        this._infoTable = infoTable;
+        this._plan = plan;
+        this._maxRows = maxRows;
+    }
+
+    @Override
+    public void streamSolrDocument(SolrDocument doc) {
+        if (this._docLists > 1 || this._infoTable.getRowCount() >= this._maxRows) {
+            return;
+        }
+        long timeStart = System.nanoTime();
+        try {
+            this._infoTable.addRow(this._plan.toRow(doc));
+        } catch (Exception exceptionError) {
+            throw new IllegalStateException("Unable to convert document: " + exceptionError.getMessage(), exceptionError);
+        } finally {
+            this._conversionNanos += System.nanoTime() - timeStart;
+        }
+    }
+
+    @Override
+    public void streamDocListInfo(long numFound, long start, Float maxScore) {
+        // the parser streams every document list of the response, e.g. the moreLikeThis ones; only the first one,
+        // which comes before them, holds the results
+        if (++this._docLists == 1) {
+            this._numFound = numFound;
+        }
+    }
+
+    public long getNumFound() {
+        return this._numFound;
+    }
+
+    /**
+     * Returns the time spent converting documents into rows, in nanoseconds.
+     */
+    public long getConversionNanos() {
+        return this._conversionNanos;
+    }
+
+    public InfoTable getInfoTable() {
+        return this._infoTable;
+    }
+}
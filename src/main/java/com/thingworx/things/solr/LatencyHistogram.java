@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free distribution of durations, recorded in microseconds in log-linear buckets (HdrHistogram style): values
+ * below 32 microseconds are exact, larger values fall into one of 16 buckets per power of two, so that percentiles
+ * are within about 3% of the recorded values whatever their magnitude. The maximum is kept exactly.
+ */
+public class LatencyHistogram {
+    private static final int LINEAR_BUCKETS = 32;
+    private static final int LINEAR_BITS = 5;
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = LINEAR_BUCKETS + (MAX_EXPONENT - LINEAR_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong _count = new AtomicLong();
+    private final AtomicLong _sum = new AtomicLong();
+    private final AtomicLong _max = new AtomicLong();
+
+    public void recordNanos(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        this._counts.incrementAndGet(bucketOf(micros));
+        this._count.incrementAndGet();
+        this._sum.addAndGet(micros);
+        this._max.accumulateAndGet(micros, Math::max);
+    }
+
+    public void recordMillis(long millis) {
+        this.recordNanos(millis * 1000000L);
+    }
+
+    /**
+     * Adds the values of another histogram to this one.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other._counts.get(i);
+            if (count > 0) {
+                this._counts.addAndGet(i, count);
+            }
+        }
+        this._count.addAndGet(other._count.get());
+        this._sum.addAndGet(other._sum.get());
+        this._max.accumulateAndGet(other._max.get(), Math::max);
+    }
+
+    public long getCount() {
+        return this._count.get();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the value (milliseconds) below which the given percentage of the recorded values fall
+     */
+    public double getPercentile(double percentile) {
+        long count = this._count.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0D));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this._counts.get(i);
+            if (seen >= rank) {
+                return Math.min(valueOf(i), this._max.get()) / 1000.0D;
+            }
+        }
+        return this.getMax();
+    }
+
+    public double getMax() {
+        return this._max.get() / 1000.0D;
+    }
+
+    public double getMean() {
+        long count = this._count.get();
+        return count > 0 ? this._sum.get() / 1000.0D / count : 0;
+    }
+
+    protected static int bucketOf(long micros) {
+        if (micros < LINEAR_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(micros), MAX_EXPONENT);
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - LINEAR_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Middle of the range of values (microseconds) of a bucket.
+     */
+    protected static long valueOf(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + LINEAR_BITS;
+        int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (SUB_BUCKETS + subBucket) * width + width / 2;
+    }
+}
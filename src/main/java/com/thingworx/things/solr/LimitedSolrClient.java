@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.util.NamedList;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+/**
+ * Sends every request of a core through its {@link ConcurrencyLimiter}, including the streamed queries, which SolrJ
+ * also executes through {@link #request}.
+ * Closing this client does not close the delegate, which is owned by the {@link SolrClientRegistry}.
+ */
+public class LimitedSolrClient extends SolrClient {
+    private static final long serialVersionUID = 1L;
+    // limiter of the request the calling thread is executing, so that a hedged read can take a slot for its hedge
+    private static final ThreadLocal<ConcurrencyLimiter> _currentLimiter = new ThreadLocal<>();
+
+    private final SolrClient _delegate;
+    private final ConcurrencyLimiter _limiter;
+
+    public LimitedSolrClient(SolrClient delegate, ConcurrencyLimiter limiter) {
+        this._delegate = delegate;
+        this._limiter = limiter;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes") // raw in the SolrClient signature
+    public NamedList<Object> request(SolrRequest request, String collection) throws SolrServerException, IOException {
+        this._limiter.acquire();
+        long start = System.currentTimeMillis();
+        boolean overloaded = false;
+        ConcurrencyLimiter outerLimiter = _currentLimiter.get();
+        _currentLimiter.set(this._limiter);
+        try {
+            return this._delegate.request(request, collection);
+        } catch (SolrServerException | IOException | RuntimeException exceptionError) {
+            overloaded = isOverloaded(exceptionError);
+            throw exceptionError;
+        } finally {
+            _currentLimiter.set(outerLimiter);
+            this._limiter.release(System.currentTimeMillis() - start, overloaded);
+        }
+    }
+
+    /**
+     * Timeouts and the HTTP 503/429 answers mean Solr cannot keep up, other errors (e.g. a bad query) say nothing
+     * about its load.
+     */
+    protected static boolean isOverloaded(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SocketTimeoutException) {
+                return true;
+            }
+            if (cause instanceof SolrException) {
+                int code = ((SolrException) cause).code();
+                return code == 503 || code == 429;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the limiter of the request executing on the calling thread, or null if it is not limited.
+     */
+    public static ConcurrencyLimiter getCurrentLimiter() {
+        return _currentLimiter.get();
+    }
+
+    public SolrClient getDelegate() {
+        return this._delegate;
+    }
+
+    public ConcurrencyLimiter getLimiter() {
+        return this._limiter;
+    }
+
+    @Override
+    public void close() {
+    }
+}
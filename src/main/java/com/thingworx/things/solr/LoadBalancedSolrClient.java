@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import com.thingworx.logging.LogUtilities;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.client.solrj.request.AbstractUpdateRequest;
+import org.apache.solr.client.solrj.request.GenericSolrRequest;
+import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Client-side load balancer over several standalone Solr nodes holding the same cores.
+ * <p>
+ * Reads are spread over the live nodes, either round-robin or to the node with the lowest observed latency.
+ * A node that cannot be reached is ejected and retried on the next one; ejected nodes are health-checked in the
+ * background and put back in rotation as soon as they answer again. Updates are only sent to the master node, and so
+ * are the realtime gets, which must see the updates not replicated yet.
+ * With a {@link RequestHedger}, a slow query is also sent to the second node in policy order.
+ */
+public class LoadBalancedSolrClient extends SolrClient {
+    private static final long serialVersionUID = 1L;
+    private static final Logger _logger = LogUtilities.getInstance().getApplicationLogger(LoadBalancedSolrClient.class);
+
+    public static final String RoundRobin = "RoundRobin";
+    public static final String LeastLatency = "LeastLatency";
+
+    // weight of the newest sample in the exponentially weighted moving average of a node latency
+    private static final double LATENCY_SMOOTHING = 0.2D;
+
+    private final List<Node> _nodes = new ArrayList<>();
+    private final Node _master;
+    private final boolean _leastLatency;
+    private final AtomicInteger _counter = new AtomicInteger();
+    private final ScheduledExecutorService _healthChecker;
+    private final RequestHedger _hedger;
+
+    /**
+     * @param baseURLs            Solr webapp URLs of every node, without any core name
+     * @param masterURL           Solr webapp URL of the node receiving the updates, or null if the nodes are read-only
+     * @param clientFactory       creates the client of a node from its URL
+     * @param policy              {@link #RoundRobin} or {@link #LeastLatency}
+     * @param healthCheckInterval interval (milliseconds) between checks of the ejected nodes
+     * @param hedger              hedges the slow queries over two nodes, or null to never hedge
+     */
+    public LoadBalancedSolrClient(List<String> baseURLs, String masterURL, Function<String, HttpSolrClient> clientFactory, String policy, int healthCheckInterval,
+                                  RequestHedger hedger) {
+        Node master = null;
+        for (String baseURL : baseURLs) {
+            Node node = new Node(baseURL, clientFactory.apply(baseURL));
+            this._nodes.add(node);
+            if (baseURL.equals(masterURL)) {
+                master = node;
+            }
+        }
+        this._master = master;
+        this._leastLatency = LeastLatency.equalsIgnoreCase(policy);
+        this._hedger = hedger;
+
+        this._healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SolrThing-HealthCheck");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = healthCheckInterval > 0 ? healthCheckInterval : 5000;
+        this._healthChecker.scheduleWithFixedDelay(this::checkEjectedNodes, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes") // raw in the SolrClient signature
+    public NamedList<Object> request(SolrRequest request, String collection) throws SolrServerException, IOException {
+        if (request instanceof AbstractUpdateRequest) {
+            if (this._master == null) {
+                throw new SolrServerException("No master Solr server is configured to receive updates");
+            }
+            return this._master.execute(request, collection);
+        }
+        if (this._master != null && isRealtimeGet(request)) {
+            // only the master holds the updates not replicated yet
+            return this._master.execute(request, collection);
+        }
+
+        Exception lastError = null;
+        List<Node> nodes = this.orderNodes();
+        // nodes a hedged read was sent to, the fallback starts after them
+        Set<Node> tried = ConcurrentHashMap.newKeySet();
+        if (this._hedger != null && request instanceof QueryRequest && nodes.size() > 1 && nodes.get(1).alive) {
+            Node primary = nodes.get(0);
+            Node secondary = nodes.get(1);
+            try {
+                return this._hedger.execute((QueryRequest) request, hedged -> {
+                    tried.add(primary);
+                    return this.execute(primary, hedged, collection);
+                }, hedged -> {
+                    tried.add(secondary);
+                    return this.execute(secondary, hedged, collection);
+                });
+            } catch (SolrServerException | IOException | SolrException exceptionError) {
+                if (!isNodeFailure(exceptionError) || RequestAborter.isCurrentCallAborted()) {
+                    throw exceptionError;
+                }
+                lastError = exceptionError;
+            }
+        }
+
+        for (Node node : nodes) {
+            if (tried.contains(node)) {
+                continue;
+            }
+            try {
+                return this.execute(node, request, collection);
+            } catch (SolrServerException | IOException | SolrException exceptionError) {
+                if (!isNodeFailure(exceptionError) || RequestAborter.isCurrentCallAborted()) {
+                    throw exceptionError;
+                }
+                lastError = exceptionError;
+            }
+        }
+        throw new SolrServerException("No live Solr servers available to handle this request", lastError);
+    }
+
+    /**
+     * Executes a request on a node, ejecting the node if it cannot be reached. A request aborted by its caller (the
+     * losing attempt of a hedged read, a federated query past its deadline) leaves the node in rotation.
+     */
+    protected NamedList<Object> execute(Node node, SolrRequest<?> request, String collection) throws SolrServerException, IOException {
+        try {
+            return node.execute(request, collection);
+        } catch (SolrServerException | IOException | SolrException exceptionError) {
+            if (isNodeFailure(exceptionError) && !RequestAborter.isCurrentCallAborted()) {
+                this.eject(node, exceptionError);
+            }
+            throw exceptionError;
+        }
+    }
+
+    /**
+     * Live nodes first, in policy order, followed by the ejected ones as a last resort.
+     */
+    protected List<Node> orderNodes() {
+        List<Node> live = new ArrayList<>();
+        List<Node> ejected = new ArrayList<>();
+        for (Node node : this._nodes) {
+            (node.alive ? live : ejected).add(node);
+        }
+
+        if (this._leastLatency) {
+            live.sort(Comparator.comparingDouble(node -> node.latency));
+        } else if (!live.isEmpty()) {
+            int offset = Math.floorMod(this._counter.getAndIncrement(), live.size());
+            List<Node> rotated = new ArrayList<>(live.subList(offset, live.size()));
+            rotated.addAll(live.subList(0, offset));
+            live = rotated;
+        }
+
+        live.addAll(ejected);
+        return live;
+    }
+
+    /**
+     * Returns the URL of the node the next read would be sent to.
+     */
+    public String getBaseURL() {
+        return this.orderNodes().get(0).baseURL;
+    }
+
+    public RequestHedger getHedger() {
+        return this._hedger;
+    }
+
+    /**
+     * Realtime get (/get) reads the uncommitted updates of the node serving it.
+     */
+    protected static boolean isRealtimeGet(SolrRequest<?> request) {
+        return "/get".equals(request.getPath());
+    }
+
+    protected static boolean isNodeFailure(Exception exceptionError) {
+        if (exceptionError instanceof SolrException) {
+            return ((SolrException) exceptionError).code() == SolrException.ErrorCode.SERVICE_UNAVAILABLE.code;
+        }
+        return true;
+    }
+
+    protected void eject(Node node, Exception exceptionError) {
+        if (node.alive) {
+            node.alive = false;
+            _logger.warn("Ejecting Solr server " + node.baseURL + ": " + exceptionError.getMessage());
+        }
+    }
+
+    protected void checkEjectedNodes() {
+        for (Node node : this._nodes) {
+            if (!node.alive) {
+                try {
+                    node.client.request(new GenericSolrRequest(SolrRequest.METHOD.GET, "/admin/info/system", new ModifiableSolrParams()));
+                    node.alive = true;
+                    _logger.info("Solr server " + node.baseURL + " is back in rotation");
+                } catch (Exception exceptionError) {
+                    _logger.debug("Solr server " + node.baseURL + " is still unavailable: " + exceptionError.getMessage());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        this._healthChecker.shutdownNow();
+        if (this._hedger != null) {
+            this._hedger.close();
+        }
+        for (Node node : this._nodes) {
+            try {
+                node.client.close();
+            } catch (IOException exceptionError) {
+                _logger.warn("Error closing Solr client for " + node.baseURL + ": " + exceptionError.getMessage());
+            }
+        }
+    }
+
+    protected static class Node {
+        final String baseURL;
+        final HttpSolrClient client;
+        volatile boolean alive = true;
+        volatile double latency = 0.0D;
+
+        Node(String baseURL, HttpSolrClient client) {
+            this.baseURL = baseURL;
+            this.client = client;
+        }
+
+        NamedList<Object> execute(SolrRequest<?> request, String collection) throws SolrServerException, IOException {
+            long timeStart = System.nanoTime();
+            NamedList<Object> response = this.client.request(request, collection);
+            double elapsed = (System.nanoTime() - timeStart) / 1000000.0D;
+            this.latency = this.latency == 0.0D ? elapsed : this.latency + LATENCY_SMOOTHING * (elapsed - this.latency);
+            return response;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import com.thingworx.data.util.InfoTableInstanceFactory;
+import com.thingworx.metadata.DataShapeDefinition;
+import com.thingworx.types.InfoTable;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.common.params.CommonParams;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Executes many independent queries concurrently over the pooled connections of the registry.
+ * <p>
+ * At most parallelism queries of a batch are in flight at any time. Each query gets its own timeout, which is also
+ * sent to Solr as timeAllowed; a query that fails or times out only fails its own result.
+ */
+public class QueryBatch {
+    private final ExecutorService _executor;
+
+    /**
+     * @param threads maximum number of queries in flight, across all batches
+     */
+    public QueryBatch(int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "SolrThing-QueryBatch-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        this._executor = executor;
+    }
+
+    /**
+     * @param requests    queries to execute
+     * @param clients     returns the client of a core
+     * @param plan        mapping of the returned documents, or null to only count the matching documents
+     * @param dataShape   data shape of the returned rows, or null to only count the matching documents
+     * @param parallelism maximum number of queries of this batch in flight
+     * @param timeout     timeout (milliseconds) of each query
+     * @return one result per request, in the order of the requests
+     */
+    public List<Result> execute(List<Request> requests, Function<String, SolrClient> clients, RowMappingPlan plan, DataShapeDefinition dataShape,
+                                int parallelism, long timeout) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(Math.max(1, parallelism));
+        List<Future<Result>> futures = new ArrayList<>();
+        List<Long> deadlines = new ArrayList<>();
+        for (Request request : requests) {
+            inFlight.acquire();
+            deadlines.add(System.currentTimeMillis() + timeout);
+            try {
+                futures.add(this._executor.submit(() -> {
+                    try {
+                        return this.executeOne(request, clients.apply(request.coreName), plan, dataShape, timeout);
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+            } catch (RuntimeException exceptionError) {
+                inFlight.release();
+                throw exceptionError;
+            }
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            Request request = requests.get(i);
+            Result result;
+            try {
+                result = futures.get(i).get(Math.max(0, deadlines.get(i) - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException exceptionError) {
+                futures.get(i).cancel(true);
+                result = new Result(request);
+                result.latency = timeout;
+                result.error = "Timeout of " + timeout + " ms exceeded";
+            } catch (ExecutionException exceptionError) {
+                result = new Result(request);
+                Throwable cause = exceptionError.getCause() != null ? exceptionError.getCause() : exceptionError;
+                result.error = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    protected Result executeOne(Request request, SolrClient server, RowMappingPlan plan, DataShapeDefinition dataShape, long timeout) throws Exception {
+        SolrQuery solrQuery = new SolrQuery();
+        solrQuery.setQuery(request.query);
+        if (request.filterQuery != null && request.filterQuery.length() > 0) {
+            solrQuery.addFilterQuery(request.filterQuery);
+        }
+        if (request.sort != null && request.sort.length() > 0) {
+            solrQuery.set(CommonParams.SORT, request.sort);
+        }
+        solrQuery.setTimeAllowed((int) Math.min(Integer.MAX_VALUE, timeout));
+
+        Result result = new Result(request);
+        long timeStart = System.currentTimeMillis();
+        if (plan == null || dataShape == null) {
+            solrQuery.setRows(0);
+            result.numFound = server.query(solrQuery).getResults().getNumFound();
+        } else {
+            solrQuery.setFields(plan.getFieldNames());
+            solrQuery.setRows(request.rows);
+            InfoTableStreamingCallback callback = new InfoTableStreamingCallback(InfoTableInstanceFactory.createInfoTableFromDataShape(dataShape), plan, request.rows);
+            server.queryAndStreamResponse(solrQuery, callback);
+            result.numFound = callback.getNumFound();
+            result.rows = callback.getInfoTable();
+        }
+        result.latency = System.currentTimeMillis() - timeStart;
+        return result;
+    }
+
+    public void close() {
+        this._executor.shutdownNow();
+    }
+
+    public static class Request {
+        public final String id;
+        public final String coreName;
+        public final String query;
+        public final String filterQuery;
+        public final String sort;
+        public final int rows;
+
+        public Request(String id, String coreName, String query, String filterQuery, String sort, int rows) {
+            this.id = id;
+            this.coreName = coreName;
+            this.query = query;
+            this.filterQuery = filterQuery;
+            this.sort = sort;
+            this.rows = rows;
+        }
+    }
+
+    public static class Result {
+        public final Request request;
+        public long numFound;
+        public long latency;
+        public String error;
+        public InfoTable rows;
+
+        Result(Request request) {
+            this.request = request;
+        }
+    }
+}
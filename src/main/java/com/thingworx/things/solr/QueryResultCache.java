@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import com.thingworx.types.InfoTable;
+import com.thingworx.types.collections.ValueCollection;
+import com.thingworx.types.primitives.IPrimitiveType;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of query results, keyed by everything that identifies a query (service, core, query, sort, filter,
+ * data shape and paging window).
+ * <p>
+ * Entries expire after the TTL of their core and are evicted in LRU or LFU order whenever the entry count or the
+ * estimated byte size of the cached InfoTables goes over its limit. Writes to a core invalidate all its entries.
+ * Cached InfoTables are copied on the way in and out, so callers can freely modify the tables they get.
+ * <p>
+ * Each core has a write generation, taken before running a query and checked when caching its result, so that a
+ * result computed while a write happened is not cached. Writes committed within a delay (commitWithin) keep the
+ * core unsettled until then: no result is cached meanwhile, and the generation changes again once it is over.
+ */
+public class QueryResultCache {
+    public static final String LRU = "LRU";
+    public static final String LFU = "LFU";
+
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    private final boolean _lfu;
+    private final int _maxEntries;
+    private final long _maxBytes;
+    private final long _defaultTTL;
+    private final Map<String, Long> _coreTTLs = new ConcurrentHashMap<>();
+    // access ordered, so that iteration starts with the least recently used entry
+    private final LinkedHashMap<String, Entry> _entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long _bytes = 0;
+    // guarded by _entries, like the entries themselves
+    private final Map<String, CacheGeneration> _generations = new HashMap<>();
+
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _evictions = new AtomicLong();
+    private final AtomicLong _expirations = new AtomicLong();
+    private final AtomicLong _invalidations = new AtomicLong();
+
+    /**
+     * @param policy     {@link #LRU} or {@link #LFU}
+     * @param maxEntries maximum number of cached results
+     * @param maxBytes   maximum estimated size of all cached results
+     * @param defaultTTL time to live (milliseconds) of the results of cores without a specific TTL
+     */
+    public QueryResultCache(String policy, int maxEntries, long maxBytes, long defaultTTL) {
+        this._lfu = LFU.equalsIgnoreCase(policy);
+        this._maxEntries = maxEntries;
+        this._maxBytes = maxBytes;
+        this._defaultTTL = defaultTTL;
+    }
+
+    public void setCoreTTL(String coreName, long ttl) {
+        this._coreTTLs.put(coreName, ttl);
+    }
+
+    public static String key(String service, String coreName, Object... parameters) {
+        StringBuilder sb = new StringBuilder(service).append(KEY_SEPARATOR).append(coreName);
+        for (Object parameter : parameters) {
+            sb.append(KEY_SEPARATOR).append(parameter);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns a copy of the cached result, or null if there is no live entry for this key.
+     */
+    public InfoTable get(String key) {
+        InfoTable result = null;
+        synchronized (this._entries) {
+            Entry entry = this._entries.get(key);
+            if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+                this.remove(key);
+                this._expirations.incrementAndGet();
+                entry = null;
+            }
+            if (entry != null) {
+                entry.hits++;
+                result = entry.result;
+            }
+        }
+
+        if (result == null) {
+            this._misses.incrementAndGet();
+            return null;
+        }
+        this._hits.incrementAndGet();
+        return result.clone();
+    }
+
+    /**
+     * Returns the write generation of a core, to be taken before running a query and passed to {@link #put}.
+     */
+    public long getGeneration(String coreName) {
+        synchronized (this._entries) {
+            return this.generation(coreName).current();
+        }
+    }
+
+    public void put(String key, String coreName, InfoTable result, long generation) {
+        long ttl = this._coreTTLs.getOrDefault(coreName, this._defaultTTL);
+        if (ttl <= 0) {
+            return;
+        }
+        long size = estimateSize(result);
+        if (size > this._maxBytes) {
+            return;
+        }
+
+        Entry entry = new Entry(coreName, result.clone(), size, System.currentTimeMillis() + ttl);
+        synchronized (this._entries) {
+            if (!this.generation(coreName).accepts(generation)) {
+                return;
+            }
+            this.remove(key);
+            this._entries.put(key, entry);
+            this._bytes += size;
+            while (this._entries.size() > this._maxEntries || this._bytes > this._maxBytes) {
+                this.remove(this.selectVictim());
+                this._evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drops every cached result of the given core, or the whole cache when the core is null or empty.
+     */
+    public void invalidate(String coreName) {
+        this.invalidate(coreName, 0);
+    }
+
+    /**
+     * Drops every cached result of the given core, or the whole cache when the core is null or empty, and caches
+     * no result of the core until the given delay is over.
+     *
+     * @param settleDelay time (milliseconds) until the written documents are searchable, e.g. their commitWithin
+     */
+    public void invalidate(String coreName, long settleDelay) {
+        synchronized (this._entries) {
+            if (coreName == null || coreName.length() == 0) {
+                for (CacheGeneration generation : this._generations.values()) {
+                    generation.advance(settleDelay);
+                }
+            } else {
+                this.generation(coreName).advance(settleDelay);
+            }
+            Iterator<Entry> iterator = this._entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (coreName == null || coreName.length() == 0 || coreName.equals(entry.coreName)) {
+                    this._bytes -= entry.size;
+                    iterator.remove();
+                    this._invalidations.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    public long getHits() {
+        return this._hits.get();
+    }
+
+    public long getMisses() {
+        return this._misses.get();
+    }
+
+    public long getEvictions() {
+        return this._evictions.get();
+    }
+
+    public long getExpirations() {
+        return this._expirations.get();
+    }
+
+    public long getInvalidations() {
+        return this._invalidations.get();
+    }
+
+    public int getEntryCount() {
+        synchronized (this._entries) {
+            return this._entries.size();
+        }
+    }
+
+    public long getSizeBytes() {
+        synchronized (this._entries) {
+            return this._bytes;
+        }
+    }
+
+    private String selectVictim() {
+        String victim = null;
+        long victimHits = Long.MAX_VALUE;
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Entry> candidate : this._entries.entrySet()) {
+            if (candidate.getValue().expiresAt < now || !this._lfu) {
+                return candidate.getKey();
+            }
+            if (candidate.getValue().hits < victimHits) {
+                victim = candidate.getKey();
+                victimHits = candidate.getValue().hits;
+            }
+        }
+        return victim;
+    }
+
+    private CacheGeneration generation(String coreName) {
+        return this._generations.computeIfAbsent(coreName != null ? coreName : "", core -> new CacheGeneration());
+    }
+
+    private void remove(String key) {
+        Entry entry = this._entries.remove(key);
+        if (entry != null) {
+            this._bytes -= entry.size;
+        }
+    }
+
+    /**
+     * Rough heap footprint of an InfoTable: fixed overhead per row and value, plus the characters of string values.
+     */
+    protected static long estimateSize(InfoTable result) {
+        long size = 64;
+        for (ValueCollection row : result.getRows()) {
+            size += 64;
+            for (String fieldName : row.keySet()) {
+                IPrimitiveType<?, ?> value = row.get(fieldName);
+                size += 48 + 2L * fieldName.length();
+                Object primitive = value != null ? value.getValue() : null;
+                if (primitive instanceof String) {
+                    size += 2L * ((String) primitive).length();
+                } else if (primitive instanceof InfoTable) {
+                    size += estimateSize((InfoTable) primitive);
+                }
+            }
+        }
+        return size;
+    }
+
+    private static class Entry {
+        final String coreName;
+        final InfoTable result;
+        final long size;
+        final long expiresAt;
+        long hits = 0;
+
+        Entry(String coreName, InfoTable result, long size, long expiresAt) {
+            this.coreName = coreName;
+            this.result = result;
+            this.size = size;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
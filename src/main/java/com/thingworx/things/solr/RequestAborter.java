@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Aborts the HTTP request a thread is sending on behalf of a call, e.g. the losing attempt of a hedged read or a core
+ * query past the deadline of a federated search. Interrupting the thread is not enough, as it does not stop a
+ * blocking socket read.
+ * <p>
+ * The HTTP client must run {@link #interceptor()}, which binds every request sent during {@link #call} to the
+ * aborter, and to the aborters of the enclosing calls; a request sent after the abort is aborted right away. A request
+ * failing because it was aborted says nothing about the health of the Solr node, see {@link #isCurrentCallAborted()}.
+ */
+public class RequestAborter {
+    private static final ThreadLocal<RequestAborter> _current = new ThreadLocal<>();
+
+    private RequestAborter _parent;
+    private HttpUriRequest _httpRequest;
+    private boolean _aborted = false;
+
+    /**
+     * Runs a call on the calling thread, binding the HTTP requests it sends to this aborter.
+     */
+    public <T> T call(Callable<T> callable) throws Exception {
+        RequestAborter outer = _current.get();
+        this._parent = outer;
+        _current.set(this);
+        try {
+            return callable.call();
+        } finally {
+            _current.set(outer);
+        }
+    }
+
+    public synchronized void abort() {
+        this._aborted = true;
+        if (this._httpRequest != null) {
+            this._httpRequest.abort();
+        }
+    }
+
+    public synchronized boolean isAborted() {
+        return this._aborted;
+    }
+
+    /**
+     * Returns whether the call running on the calling thread, or a call enclosing it, was aborted.
+     */
+    public static boolean isCurrentCallAborted() {
+        for (RequestAborter aborter = _current.get(); aborter != null; aborter = aborter._parent) {
+            if (aborter.isAborted()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected synchronized void bind(HttpUriRequest httpRequest) {
+        this._httpRequest = httpRequest;
+        if (this._aborted) {
+            httpRequest.abort();
+        }
+    }
+
+    /**
+     * Request interceptor binding the HTTP request to the aborter of the call running on the thread, if any.
+     */
+    public static HttpRequestInterceptor interceptor() {
+        return (request, context) -> {
+            if (request instanceof HttpRequestWrapper && ((HttpRequestWrapper) request).getOriginal() instanceof HttpUriRequest) {
+                for (RequestAborter aborter = _current.get(); aborter != null; aborter = aborter._parent) {
+                    aborter.bind((HttpUriRequest) ((HttpRequestWrapper) request).getOriginal());
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.StreamingResponseCallback;
+import org.apache.solr.client.solrj.impl.StreamingBinaryResponseParser;
+import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.util.NamedList;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hedged reads: a query that has not answered after the given percentile of the recently observed latencies is sent
+ * again to a second replica, and the first response wins while the HTTP request of the other one is aborted.
+ * <p>
+ * Hedges are budgeted: every read earns maxHedgeRate percent of a hedge and a hedge is only sent when a whole one is
+ * available, so a slow cluster never receives more than maxHedgeRate percent extra load. No read is hedged until
+ * enough latencies were observed.
+ * <p>
+ * The primary attempt runs on the calling thread and streams as usual; only the hedge of a streamed query is
+ * buffered, and replayed to the callback if it answers before the primary streamed anything, so that no document is
+ * streamed twice. A hedge takes a slot of the {@link ConcurrencyLimiter} of the query, and is not sent when none is
+ * free; its response bytes are counted for the calling thread.
+ */
+public class RequestHedger {
+    // latencies observed before the hedge delay is trusted, and size of the latency window
+    private static final int MIN_SAMPLES = 100;
+    private static final int WINDOW = 1000;
+    // budget in hundredths of a hedge, at most MAX_BURST hedges can be sent in a row
+    private static final long HEDGE_COST = 100;
+    private static final long MAX_BURST = 10;
+
+    private final double _percentile;
+    private final long _creditPerRead;
+    private final AtomicLong _credit = new AtomicLong(HEDGE_COST);
+    private final ExecutorService _executor;
+    private final ScheduledExecutorService _timer;
+    private volatile LatencyHistogram _current = new LatencyHistogram();
+    private volatile LatencyHistogram _previous;
+
+    private final AtomicLong _reads = new AtomicLong();
+    private final AtomicLong _hedged = new AtomicLong();
+    private final AtomicLong _hedgeWins = new AtomicLong();
+
+    /**
+     * @param percentile   percentile (0 to 100) of the observed latency after which a read is hedged
+     * @param maxHedgeRate maximum percentage of the reads that are hedged
+     */
+    public RequestHedger(double percentile, double maxHedgeRate) {
+        this._percentile = percentile;
+        this._creditPerRead = Math.max(0, Math.round(maxHedgeRate));
+        AtomicInteger threadCount = new AtomicInteger();
+        this._executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "SolrThing-HedgedRead-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "SolrThing-HedgeTimer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        this._timer = timer;
+    }
+
+    /**
+     * Executes a query on the primary replica, and on the secondary one as well if the primary is slow.
+     * <p>
+     * The primary attempt runs on the calling thread with the request as given, so a streamed query keeps streaming
+     * its documents to the callback. The hedge runs on the executor and is buffered; it only wins when it answers
+     * before the primary streams anything, and its documents are then replayed to the callback.
+     */
+    public NamedList<Object> execute(QueryRequest request, Attempt primary, Attempt secondary) throws SolrServerException, IOException {
+        this._reads.incrementAndGet();
+        this._credit.accumulateAndGet(this._creditPerRead, (credit, earned) -> Math.min(MAX_BURST * HEDGE_COST, credit + earned));
+        long delay = this.getHedgeDelay();
+        long start = System.nanoTime();
+        if (delay < 0) {
+            NamedList<Object> response = primary.execute(request);
+            this.record(System.nanoTime() - start);
+            return response;
+        }
+
+        StreamingResponseCallback callback = request.getStreamingResponseCallback();
+        HedgedRead read = new HedgedRead(secondary, copy(request), LimitedSolrClient.getCurrentLimiter());
+        QueryRequest primaryRequest = request;
+        if (callback != null) {
+            StreamingResponseCallback deciding = read.decidingCallback(callback);
+            primaryRequest = copy(request);
+            primaryRequest.setStreamingResponseCallback(deciding);
+            primaryRequest.setResponseParser(new StreamingBinaryResponseParser(deciding));
+        }
+        QueryRequest attemptRequest = primaryRequest;
+        ScheduledFuture<?> hedgeTimer = this._timer.schedule(() -> this.hedge(read), delay, TimeUnit.MILLISECONDS);
+        try {
+            NamedList<Object> response = null;
+            Exception primaryError = null;
+            try {
+                response = read.primaryAborter.call(() -> primary.execute(attemptRequest));
+            } catch (Exception exceptionError) {
+                primaryError = exceptionError;
+            }
+            hedgeTimer.cancel(false);
+            read.finishPrimary(primaryError == null);
+            if (primaryError == null && read.getWinner() == HedgedRead.PRIMARY) {
+                this.record(System.nanoTime() - start);
+                return response;
+            }
+
+            Future<NamedList<Object>> hedge = read.getHedge();
+            if (primaryError != null && (hedge == null || read.getWinner() == HedgedRead.PRIMARY || RequestAborter.isCurrentCallAborted())) {
+                throw rethrow(primaryError);
+            }
+            // the hedge answered first, or the primary failed before answering while the hedge is running
+            NamedList<Object> hedgedResponse = hedge.get();
+            this.record(System.nanoTime() - start);
+            this._hedgeWins.incrementAndGet();
+            return callback != null ? replay(hedgedResponse, callback) : hedgedResponse;
+        } catch (ExecutionException exceptionError) {
+            throw rethrow(exceptionError.getCause());
+        } catch (InterruptedException exceptionError) {
+            Thread.currentThread().interrupt();
+            throw new SolrServerException("Interrupted while waiting for a hedged read", exceptionError);
+        } finally {
+            hedgeTimer.cancel(false);
+            // interrupting the thread does not stop a blocking socket read, the HTTP request has to be aborted
+            read.abortHedge();
+            // bytes of the hedge if it completed, an aborted hedge still running is not counted
+            ResponseByteCounter.add(read.hedgeBytes.get());
+        }
+    }
+
+    /**
+     * Sends the hedge of a read still waiting for its primary, if the budget and the concurrency limit allow it.
+     */
+    private void hedge(HedgedRead read) {
+        if (!read.canHedge() || !this.tryAcquireHedge()) {
+            return;
+        }
+        if (read.limiter != null && !read.limiter.tryAcquire()) {
+            this._credit.addAndGet(HEDGE_COST);
+            return;
+        }
+        if (read.startHedge(this._executor)) {
+            this._hedged.incrementAndGet();
+        } else {
+            if (read.limiter != null) {
+                read.limiter.release(0, false);
+            }
+            this._credit.addAndGet(HEDGE_COST);
+        }
+    }
+
+    /**
+     * Copies a query with its path, parameters and credentials. The copy of a streamed query is parsed by the
+     * client default parser, so that the response is buffered until it wins.
+     */
+    protected static QueryRequest copy(QueryRequest request) {
+        QueryRequest copy = new QueryRequest(request.getParams(), request.getMethod());
+        copy.setPath(request.getPath());
+        copy.setQueryParams(request.getQueryParams());
+        copy.setBasicAuthCredentials(request.getBasicAuthUser(), request.getBasicAuthPassword());
+        if (request.getStreamingResponseCallback() == null) {
+            copy.setResponseParser(request.getResponseParser());
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the delay (milliseconds) after which a read is hedged, or -1 while too few latencies were observed.
+     */
+    public long getHedgeDelay() {
+        LatencyHistogram histogram = this._previous != null ? this._previous : this._current;
+        if (histogram.getCount() < MIN_SAMPLES) {
+            return -1;
+        }
+        return Math.max(1, (long) Math.ceil(histogram.getPercentile(this._percentile)));
+    }
+
+    private boolean tryAcquireHedge() {
+        long credit;
+        do {
+            credit = this._credit.get();
+            if (credit < HEDGE_COST) {
+                return false;
+            }
+        } while (!this._credit.compareAndSet(credit, credit - HEDGE_COST));
+        return true;
+    }
+
+    private void record(long nanos) {
+        LatencyHistogram current = this._current;
+        current.recordNanos(nanos);
+        if (current.getCount() >= WINDOW) {
+            synchronized (this) {
+                if (this._current == current) {
+                    this._previous = current;
+                    this._current = new LatencyHistogram();
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands the documents of a buffered response to the streaming callback, leaving an empty document list in the
+     * response like the streaming parser does.
+     */
+    protected static NamedList<Object> replay(NamedList<Object> response, StreamingResponseCallback callback) {
+        int index = response.indexOf("response", 0);
+        if (index >= 0 && response.getVal(index) instanceof SolrDocumentList) {
+            SolrDocumentList docs = (SolrDocumentList) response.getVal(index);
+            callback.streamDocListInfo(docs.getNumFound(), docs.getStart(), docs.getMaxScore());
+            for (SolrDocument doc : docs) {
+                callback.streamSolrDocument(doc);
+            }
+            SolrDocumentList empty = new SolrDocumentList();
+            empty.setNumFound(docs.getNumFound());
+            empty.setStart(docs.getStart());
+            empty.setMaxScore(docs.getMaxScore());
+            response.setVal(index, empty);
+        }
+        return response;
+    }
+
+    private static SolrServerException rethrow(Throwable cause) throws IOException {
+        if (cause instanceof SolrServerException) {
+            return (SolrServerException) cause;
+        }
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return new SolrServerException(cause);
+    }
+
+    public long getReads() {
+        return this._reads.get();
+    }
+
+    public long getHedged() {
+        return this._hedged.get();
+    }
+
+    public long getHedgeWins() {
+        return this._hedgeWins.get();
+    }
+
+    public void close() {
+        this._timer.shutdownNow();
+        this._executor.shutdownNow();
+    }
+
+    /**
+     * A read sent to one replica.
+     */
+    @FunctionalInterface
+    public interface Attempt {
+        NamedList<Object> execute(SolrRequest<?> request) throws SolrServerException, IOException;
+    }
+
+    /**
+     * State of a hedged read: which attempt answered first, and the hedge running on the executor, if any. The loser
+     * is aborted as soon as the winner is known.
+     */
+    private static class HedgedRead {
+        static final int NONE = 0;
+        static final int PRIMARY = 1;
+        static final int HEDGE = 2;
+
+        final RequestAborter primaryAborter = new RequestAborter();
+        final RequestAborter hedgeAborter = new RequestAborter();
+        final AtomicLong hedgeBytes = new AtomicLong();
+        final ConcurrencyLimiter limiter;
+        private final Attempt _secondary;
+        private final QueryRequest _hedgeRequest;
+        private int _winner = NONE;
+        private boolean _primaryDone = false;
+        private Future<NamedList<Object>> _hedge;
+
+        HedgedRead(Attempt secondary, QueryRequest hedgeRequest, ConcurrencyLimiter limiter) {
+            this._secondary = secondary;
+            this._hedgeRequest = hedgeRequest;
+            this.limiter = limiter;
+        }
+
+        /**
+         * Wraps the callback of a streamed query: the primary wins when it streams its first document list, and
+         * stops streaming if the hedge won before.
+         */
+        StreamingResponseCallback decidingCallback(StreamingResponseCallback callback) {
+            return new StreamingResponseCallback() {
+                private boolean _won = false;
+
+                @Override
+                public void streamSolrDocument(SolrDocument doc) {
+                    this.ensureWon();
+                    callback.streamSolrDocument(doc);
+                }
+
+                @Override
+                public void streamDocListInfo(long numFound, long start, Float maxScore) {
+                    this.ensureWon();
+                    callback.streamDocListInfo(numFound, start, maxScore);
+                }
+
+                private void ensureWon() {
+                    if (!this._won) {
+                        if (!HedgedRead.this.decide(PRIMARY)) {
+                            throw new IllegalStateException("The hedge of this read answered first");
+                        }
+                        this._won = true;
+                    }
+                }
+            };
+        }
+
+        synchronized boolean decide(int winner) {
+            if (this._winner == NONE) {
+                this._winner = winner;
+                (winner == PRIMARY ? this.hedgeAborter : this.primaryAborter).abort();
+            }
+            return this._winner == winner;
+        }
+
+        synchronized int getWinner() {
+            return this._winner;
+        }
+
+        synchronized void finishPrimary(boolean succeeded) {
+            this._primaryDone = true;
+            if (succeeded) {
+                this.decide(PRIMARY);
+            }
+        }
+
+        synchronized boolean canHedge() {
+            return this._winner == NONE && !this._primaryDone;
+        }
+
+        synchronized boolean startHedge(ExecutorService executor) {
+            if (!this.canHedge()) {
+                return false;
+            }
+            this._hedge = executor.submit(this::runHedge);
+            return true;
+        }
+
+        synchronized Future<NamedList<Object>> getHedge() {
+            return this._hedge;
+        }
+
+        /**
+         * Aborts the hedge unless it won. A hedge not started yet is aborted as soon as it sends its request, so that
+         * it still releases its concurrency slot.
+         */
+        synchronized void abortHedge() {
+            if (this._hedge != null && this._winner != HEDGE) {
+                this.hedgeAborter.abort();
+            }
+        }
+
+        private NamedList<Object> runHedge() throws Exception {
+            long bytesAtStart = ResponseByteCounter.get();
+            long start = System.currentTimeMillis();
+            boolean overloaded = false;
+            try {
+                NamedList<Object> response = this.hedgeAborter.call(() -> this._secondary.execute(this._hedgeRequest));
+                if (!this.decide(HEDGE)) {
+                    throw new SolrServerException("The primary attempt of this read answered first");
+                }
+                return response;
+            } catch (Exception exceptionError) {
+                overloaded = LimitedSolrClient.isOverloaded(exceptionError);
+                throw exceptionError;
+            } finally {
+                this.hedgeBytes.addAndGet(ResponseByteCounter.get() - bytesAtStart);
+                if (this.limiter != null) {
+                    // an aborted hedge says nothing about the load of Solr
+                    boolean aborted = this.hedgeAborter.isAborted();
+                    this.limiter.release(aborted ? 0 : System.currentTimeMillis() - start, overloaded && !aborted);
+                }
+            }
+        }
+    }
+}
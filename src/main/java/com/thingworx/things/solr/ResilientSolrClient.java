@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import com.thingworx.logging.LogUtilities;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.util.NamedList;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Protects the calls to a core with its {@link CircuitBreaker}, and retries the reads failing on a transient error
+ * (connection failure, timeout, HTTP 503 or 429) with exponential backoff and full jitter, so that the retries of
+ * many callers do not hit a recovering Solr at the same time.
+ * <p>
+ * Updates are never retried. A streamed query is only retried when it failed before its response started, otherwise
+ * the documents already handed to the callback would be delivered twice.
+ * Closing this client does not close the delegate, which is owned by the {@link SolrClientRegistry}.
+ */
+public class ResilientSolrClient extends SolrClient {
+    private static final long serialVersionUID = 1L;
+    private static final Logger _logger = LogUtilities.getInstance().getApplicationLogger(ResilientSolrClient.class);
+
+    private final SolrClient _delegate;
+    private final CircuitBreaker _breaker;
+    private final int _maxRetries;
+    private final long _retryBackoff;
+    private final long _maxRetryBackoff;
+    private final long _deadline;
+
+    /**
+     * @param breaker         circuit breaker of the core, or null for none
+     * @param maxRetries      maximum number of retries of a read
+     * @param retryBackoff    base delay (milliseconds) before the first retry, doubled for each further retry
+     * @param maxRetryBackoff maximum delay (milliseconds) before a retry
+     * @param deadline        time (milliseconds) after which a request is no longer retried, 0 for none
+     */
+    public ResilientSolrClient(SolrClient delegate, CircuitBreaker breaker, int maxRetries, long retryBackoff, long maxRetryBackoff, long deadline) {
+        this._delegate = delegate;
+        this._breaker = breaker;
+        this._maxRetries = Math.max(0, maxRetries);
+        this._retryBackoff = Math.max(1, retryBackoff);
+        this._maxRetryBackoff = Math.max(this._retryBackoff, maxRetryBackoff);
+        this._deadline = deadline;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes") // raw in the SolrClient signature
+    public NamedList<Object> request(SolrRequest request, String collection) throws SolrServerException, IOException {
+        boolean retryable = isRead(request);
+        boolean streamed = request.getStreamingResponseCallback() != null;
+        long firstStart = System.currentTimeMillis();
+        for (int attempt = 0; ; attempt++) {
+            if (this._breaker != null && !this._breaker.allowRequest()) {
+                throw new SolrServerException("Circuit breaker open for core " + this._breaker.getCoreName() + ", request rejected without calling Solr");
+            }
+            long start = System.currentTimeMillis();
+            try {
+                NamedList<Object> response = this._delegate.request(request, collection);
+                this.record(start, false);
+                return response;
+            } catch (SolrServerException | IOException | RuntimeException exceptionError) {
+                boolean isTransient = isTransient(exceptionError);
+                this.record(start, isTransient);
+                if (!retryable || !isTransient || attempt >= this._maxRetries || (streamed && !isBeforeResponse(exceptionError))) {
+                    throw exceptionError;
+                }
+                long backoff = ThreadLocalRandom.current().nextLong(Math.min(this._maxRetryBackoff, this._retryBackoff << Math.min(attempt, 30)) + 1);
+                if (this._deadline > 0 && System.currentTimeMillis() + backoff - firstStart >= this._deadline) {
+                    throw exceptionError;
+                }
+                _logger.warn("Retrying request in " + backoff + " ms after a transient error (attempt " + (attempt + 1) + "): " + exceptionError.getMessage());
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interruptedError) {
+                    Thread.currentThread().interrupt();
+                    throw exceptionError;
+                }
+            }
+        }
+    }
+
+    private void record(long start, boolean failed) {
+        if (this._breaker != null) {
+            this._breaker.record(System.currentTimeMillis() - start, failed);
+        }
+    }
+
+    /**
+     * Queries and GET requests (schema, ping, ...) have no side effect and can be sent again.
+     */
+    protected static boolean isRead(SolrRequest<?> request) {
+        return request instanceof QueryRequest || request.getMethod() == SolrRequest.METHOD.GET;
+    }
+
+    /**
+     * Connection failures, timeouts and the HTTP 5xx/429 answers tell about the health of Solr; other errors, such as
+     * a bad query or the rejection of the concurrency limit, do not.
+     */
+    protected static boolean isTransient(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof ConnectTimeoutException || cause instanceof NoHttpResponseException
+                    || cause instanceof SocketTimeoutException) {
+                return true;
+            }
+            if (cause instanceof SolrException) {
+                int code = ((SolrException) cause).code();
+                return code >= 500 || code == 429;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the error happened before any part of the response was received.
+     */
+    protected static boolean isBeforeResponse(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof ConnectTimeoutException || cause instanceof NoHttpResponseException) {
+                return true;
+            }
+            if (cause instanceof SolrException) {
+                int code = ((SolrException) cause).code();
+                return code == 503 || code == 429;
+            }
+        }
+        return false;
+    }
+
+    public SolrClient getDelegate() {
+        return this._delegate;
+    }
+
+    public CircuitBreaker getBreaker() {
+        return this._breaker;
+    }
+
+    @Override
+    public void close() {
+    }
+}
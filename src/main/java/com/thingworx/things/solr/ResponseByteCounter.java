@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes of the Solr responses read by each thread, as received on the wire (before decompression).
+ * SolrJ reads a response on the thread that sent the request, so the difference of {@link #get()} before and after
+ * a request is the size of its response.
+ */
+public class ResponseByteCounter {
+    private static final ThreadLocal<long[]> _bytesRead = ThreadLocal.withInitial(() -> new long[1]);
+
+    protected ResponseByteCounter() {
+    }
+
+    /**
+     * Returns the number of response bytes read so far by the calling thread.
+     */
+    public static long get() {
+        return _bytesRead.get()[0];
+    }
+
+    /**
+     * Adds to the calling thread the response bytes read on its behalf by another thread.
+     */
+    public static void add(long bytes) {
+        _bytesRead.get()[0] += bytes;
+    }
+
+    /**
+     * Response interceptor wrapping the entity of every response, it must run before the content decompression.
+     */
+    public static HttpResponseInterceptor interceptor() {
+        return (response, context) -> {
+            HttpEntity entity = response.getEntity();
+            if (entity != null) {
+                response.setEntity(new CountingEntity(entity));
+            }
+        };
+    }
+
+    private static class CountingEntity extends HttpEntityWrapper {
+        CountingEntity(HttpEntity entity) {
+            super(entity);
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return new CountingInputStream(super.getContent());
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                _bytesRead.get()[0]++;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                _bytesRead.get()[0] += count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            _bytesRead.get()[0] += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import com.thingworx.datashape.DataShape;
+import com.thingworx.metadata.FieldDefinition;
+import com.thingworx.metadata.collections.FieldDefinitionCollection;
+import com.thingworx.types.BaseTypes;
+import com.thingworx.types.collections.ValueCollection;
+import com.thingworx.types.primitives.BooleanPrimitive;
+import com.thingworx.types.primitives.DatetimePrimitive;
+import com.thingworx.types.primitives.IPrimitiveType;
+import com.thingworx.types.primitives.IntegerPrimitive;
+import com.thingworx.types.primitives.JSONPrimitive;
+import com.thingworx.types.primitives.LocationPrimitive;
+import com.thingworx.types.primitives.LongPrimitive;
+import com.thingworx.types.primitives.NumberPrimitive;
+import com.thingworx.types.primitives.StringPrimitive;
+import com.thingworx.types.primitives.structs.Location;
+import org.apache.solr.common.SolrDocument;
+import org.joda.time.DateTime;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Precompiled mapping from Solr documents to the rows of a DataShape: the field names, in order, each with a
+ * converter specialized for its base type. A plan is built once per DataShape and reused for every row of every
+ * query until the DataShape changes; its field names are also used as the Solr fl parameter.
+ */
+public class RowMappingPlan {
+    private final FieldDefinitionCollection _source;
+    private final int _sourceSize;
+    private final DateTime _sourceModified;
+    private final String[] _fieldNames;
+    private final BaseTypes[] _baseTypes;
+    private final ValueConverter[] _converters;
+
+    private RowMappingPlan(DataShape ds) {
+        this._source = ds.getFields();
+        this._sourceSize = this._source.size();
+        this._sourceModified = ds.GetLastModifiedDate();
+
+        FieldDefinition[] fieldDefinitions = this._source.values().toArray(new FieldDefinition[0]);
+        this._fieldNames = new String[fieldDefinitions.length];
+        this._baseTypes = new BaseTypes[fieldDefinitions.length];
+        this._converters = new ValueConverter[fieldDefinitions.length];
+        for (int i = 0; i < fieldDefinitions.length; i++) {
+            this._fieldNames[i] = fieldDefinitions[i].getName();
+            this._baseTypes[i] = fieldDefinitions[i].getBaseType();
+            this._converters[i] = converterFor(fieldDefinitions[i].getBaseType());
+        }
+    }
+
+    public static RowMappingPlan create(DataShape ds) {
+        return new RowMappingPlan(ds);
+    }
+
+    /**
+     * Whether the plan still reflects the fields of the DataShape it was built from.
+     */
+    public boolean isValidFor(DataShape ds) {
+        FieldDefinitionCollection fields = ds.getFields();
+        return fields == this._source && fields.size() == this._sourceSize && Objects.equals(ds.GetLastModifiedDate(), this._sourceModified);
+    }
+
+    public String[] getFieldNames() {
+        return this._fieldNames.clone();
+    }
+
+    /**
+     * Returns the names of the fields of the given base type.
+     */
+    public List<String> getFieldNames(BaseTypes baseType) {
+        List<String> fieldNames = new ArrayList<>();
+        for (int i = 0; i < this._fieldNames.length; i++) {
+            if (this._baseTypes[i] == baseType) {
+                fieldNames.add(this._fieldNames[i]);
+            }
+        }
+        return fieldNames;
+    }
+
+    public ValueCollection toRow(SolrDocument doc) throws Exception {
+        return this.toRow(doc, null);
+    }
+
+    /**
+     * @param highlights highlighted snippets of the document by field name, used instead of the stored values when
+     *                   present; the snippets of a field are joined with " ... " unless it is a JSON (multiValued) field
+     */
+    public ValueCollection toRow(SolrDocument doc, Map<String, List<String>> highlights) throws Exception {
+        ValueCollection values = new ValueCollection();
+        for (int i = 0; i < this._fieldNames.length; i++) {
+            List<String> snippets = highlights != null ? highlights.get(this._fieldNames[i]) : null;
+            Object value = snippets;
+            if (snippets != null && this._baseTypes[i] != BaseTypes.JSON) {
+                value = snippets.size() == 1 ? snippets.get(0) : String.join(" ... ", snippets);
+            }
+            if (value == null) {
+                value = doc.getFieldValue(this._fieldNames[i]);
+            }
+            if (value != null) {
+                values.put(this._fieldNames[i], this._converters[i].convert(value));
+            }
+        }
+        return values;
+    }
+
+    protected static ValueConverter converterFor(BaseTypes baseType) {
+        switch (baseType) {
+            case STRING:
+                return value -> value instanceof String ? new StringPrimitive((String) value) : BaseTypes.ConvertToPrimitive(value, baseType);
+            case NUMBER:
+                return value -> value instanceof Number ? new NumberPrimitive((Number) value) : BaseTypes.ConvertToPrimitive(value, baseType);
+            case INTEGER:
+                return value -> value instanceof Integer ? new IntegerPrimitive((Number) value) : BaseTypes.ConvertToPrimitive(value, baseType);
+            case LONG:
+                return value -> value instanceof Long ? new LongPrimitive((Number) value) : BaseTypes.ConvertToPrimitive(value, baseType);
+            case BOOLEAN:
+                return value -> value instanceof Boolean ? new BooleanPrimitive((Boolean) value) : BaseTypes.ConvertToPrimitive(value, baseType);
+            case DATETIME:
+                return value -> value instanceof Date ? new DatetimePrimitive(new DateTime(value)) : BaseTypes.ConvertToPrimitive(value, baseType);
+            case JSON:
+                // the values of a multiValued field, wrapped in an object as JSON base types cannot hold arrays
+                return value -> value instanceof Collection ? new JSONPrimitive(new JSONObject().put("array", new JSONArray(new ArrayList<Object>((Collection<?>) value))))
+                        : BaseTypes.ConvertToPrimitive(value, baseType);
+            case LOCATION:
+                return value -> value instanceof String ? toLocation((String) value) : BaseTypes.ConvertToPrimitive(value, baseType);
+            default:
+                return value -> BaseTypes.ConvertToPrimitive(value, baseType);
+        }
+    }
+
+    /**
+     * Parses a Solr point, "latitude,longitude".
+     */
+    protected static IPrimitiveType<?, ?> toLocation(String value) throws Exception {
+        int comma = value.indexOf(',');
+        if (comma < 0) {
+            return BaseTypes.ConvertToPrimitive(value, BaseTypes.LOCATION);
+        }
+        Location location = new Location();
+        location.setLatitude(Double.valueOf(value.substring(0, comma).trim()));
+        location.setLongitude(Double.valueOf(value.substring(comma + 1).trim()));
+        return new LocationPrimitive(location);
+    }
+
+    @FunctionalInterface
+    protected interface ValueConverter {
+        IPrimitiveType<?, ?> convert(Object value) throws Exception;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import com.thingworx.types.BaseTypes;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.request.GenericSolrRequest;
+import org.apache.solr.client.solrj.request.schema.FieldTypeDefinition;
+import org.apache.solr.client.solrj.request.schema.SchemaRequest;
+import org.apache.solr.client.solrj.response.schema.SchemaRepresentation;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of the schema of each core: fields, dynamic fields, field types and uniqueKey, read in a single request.
+ * <p>
+ * A cached schema is trusted for the refresh interval. After that, when Solr keeps the schema in ZooKeeper its
+ * znode version is checked first and the schema is only read again if that version changed.
+ */
+public class SchemaCache {
+    // Solr field type classes (without package) and their ThingWorx base type, anything else is a STRING. Currency
+    // values ("10.00,USD") and date ranges ("[2000 TO 2010]") are returned as text, so they are STRING too.
+    private static final Map<String, BaseTypes> TYPE_CLASSES = new HashMap<>();
+
+    static {
+        TYPE_CLASSES.put("BoolField", BaseTypes.BOOLEAN);
+        for (String typeClass : new String[]{"IntPointField", "TrieIntField", "IntField"}) {
+            TYPE_CLASSES.put(typeClass, BaseTypes.INTEGER);
+        }
+        for (String typeClass : new String[]{"LongPointField", "TrieLongField", "LongField"}) {
+            TYPE_CLASSES.put(typeClass, BaseTypes.LONG);
+        }
+        for (String typeClass : new String[]{"FloatPointField", "DoublePointField", "TrieFloatField", "TrieDoubleField", "FloatField", "DoubleField"}) {
+            TYPE_CLASSES.put(typeClass, BaseTypes.NUMBER);
+        }
+        for (String typeClass : new String[]{"DatePointField", "TrieDateField"}) {
+            TYPE_CLASSES.put(typeClass, BaseTypes.DATETIME);
+        }
+        for (String typeClass : new String[]{"LatLonPointSpatialField", "LatLonType", "PointType", "SpatialRecursivePrefixTreeFieldType"}) {
+            TYPE_CLASSES.put(typeClass, BaseTypes.LOCATION);
+        }
+    }
+
+    private final long _refreshInterval;
+    private final Map<String, CoreSchema> _schemas = new ConcurrentHashMap<>();
+    private final Map<String, Object> _locks = new ConcurrentHashMap<>();
+
+    /**
+     * @param refreshInterval time (milliseconds) a schema is used without checking whether it changed
+     */
+    public SchemaCache(long refreshInterval) {
+        this._refreshInterval = refreshInterval;
+    }
+
+    /**
+     * Returns the schema of a core, reading it from Solr if it is not cached or may have changed.
+     */
+    public CoreSchema get(String coreName, SolrClient client) throws Exception {
+        String key = coreName != null ? coreName : "";
+        CoreSchema schema = this._schemas.get(key);
+        if (schema != null && System.currentTimeMillis() < schema.checkAfter) {
+            return schema;
+        }
+        synchronized (this._locks.computeIfAbsent(key, core -> new Object())) {
+            schema = this._schemas.get(key);
+            if (schema != null && System.currentTimeMillis() < schema.checkAfter) {
+                return schema;
+            }
+            if (schema != null && schema.zkVersion >= 0 && readZkVersion(client) == schema.zkVersion) {
+                schema.checkAfter = System.currentTimeMillis() + this._refreshInterval;
+                return schema;
+            }
+            schema = new CoreSchema(new SchemaRequest().process(client).getSchemaRepresentation(), readZkVersion(client),
+                    System.currentTimeMillis() + this._refreshInterval);
+            this._schemas.put(key, schema);
+            return schema;
+        }
+    }
+
+    /**
+     * Forgets the schema of a core, or of all cores when the core is null or empty.
+     */
+    public void invalidate(String coreName) {
+        if (coreName == null || coreName.length() == 0) {
+            this._schemas.clear();
+        } else {
+            this._schemas.remove(coreName);
+        }
+    }
+
+    /**
+     * Returns the version of the schema znode, or -1 when the schema is not kept in ZooKeeper.
+     */
+    protected static int readZkVersion(SolrClient client) {
+        try {
+            NamedList<Object> response = client.request(new GenericSolrRequest(SolrRequest.METHOD.GET, "/schema/zkversion", new ModifiableSolrParams()));
+            Object zkVersion = response.get("zkversion");
+            return zkVersion instanceof Number ? ((Number) zkVersion).intValue() : -1;
+        } catch (Exception exceptionError) {
+            return -1;
+        }
+    }
+
+    /**
+     * Maps a Solr field type class, e.g. solr.IntPointField or org.apache.solr.schema.IntPointField, to a base type.
+     */
+    public static BaseTypes toBaseType(String typeClass, boolean multiValued) {
+        if (multiValued) {
+            return BaseTypes.JSON;
+        }
+        if (typeClass == null) {
+            return BaseTypes.STRING;
+        }
+        BaseTypes baseType = TYPE_CLASSES.get(typeClass.substring(typeClass.lastIndexOf('.') + 1));
+        return baseType != null ? baseType : BaseTypes.STRING;
+    }
+
+    public static class CoreSchema {
+        private final String _uniqueKey;
+        private final Map<String, SchemaField> _fields = new LinkedHashMap<>();
+        private final List<SchemaField> _dynamicFields = new ArrayList<>();
+        final int zkVersion;
+        volatile long checkAfter;
+
+        CoreSchema(SchemaRepresentation schema, int zkVersion, long checkAfter) {
+            this._uniqueKey = schema.getUniqueKey();
+            this.zkVersion = zkVersion;
+            this.checkAfter = checkAfter;
+
+            Map<String, Map<String, Object>> fieldTypes = new HashMap<>();
+            if (schema.getFieldTypes() != null) {
+                for (FieldTypeDefinition fieldType : schema.getFieldTypes()) {
+                    fieldTypes.put(String.valueOf(fieldType.getAttributes().get("name")), fieldType.getAttributes());
+                }
+            }
+            for (Map<String, Object> field : nonNull(schema.getFields())) {
+                SchemaField schemaField = new SchemaField(field, fieldTypes);
+                this._fields.put(schemaField.name, schemaField);
+            }
+            for (Map<String, Object> field : nonNull(schema.getDynamicFields())) {
+                this._dynamicFields.add(new SchemaField(field, fieldTypes));
+            }
+            // like Solr, the longest matching dynamic field pattern wins
+            this._dynamicFields.sort((left, right) -> right.name.length() - left.name.length());
+        }
+
+        public String getUniqueKey() {
+            return this._uniqueKey;
+        }
+
+        public Collection<SchemaField> getFields() {
+            return Collections.unmodifiableCollection(this._fields.values());
+        }
+
+        /**
+         * Returns the field of the given name, or the dynamic field matching it, or null.
+         */
+        public SchemaField getField(String name) {
+            SchemaField field = this._fields.get(name);
+            if (field != null) {
+                return field;
+            }
+            for (SchemaField dynamicField : this._dynamicFields) {
+                String pattern = dynamicField.name;
+                if ((pattern.startsWith("*") && name.endsWith(pattern.substring(1))) || (pattern.endsWith("*") && name.startsWith(pattern.substring(0, pattern.length() - 1)))) {
+                    return dynamicField;
+                }
+            }
+            return null;
+        }
+
+        private static List<Map<String, Object>> nonNull(List<Map<String, Object>> list) {
+            return list != null ? list : Collections.emptyList();
+        }
+    }
+
+    public static class SchemaField {
+        public final String name;
+        public final String type;
+        public final String typeClass;
+        public final boolean multiValued;
+        public final BaseTypes baseType;
+
+        SchemaField(Map<String, Object> field, Map<String, Map<String, Object>> fieldTypes) {
+            this.name = String.valueOf(field.get("name"));
+            this.type = String.valueOf(field.get("type"));
+            Map<String, Object> fieldType = fieldTypes.getOrDefault(this.type, Collections.emptyMap());
+            this.typeClass = fieldType.get("class") != null ? String.valueOf(fieldType.get("class")) : null;
+            // a field inherits multiValued from its type unless it sets it itself
+            Object multiValued = field.containsKey("multiValued") ? field.get("multiValued") : fieldType.get("multiValued");
+            this.multiValued = Boolean.TRUE.equals(multiValued) || "true".equals(multiValued);
+            this.baseType = toBaseType(this.typeClass, this.multiValued);
+        }
+    }
+}
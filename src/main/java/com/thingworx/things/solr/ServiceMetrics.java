@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import com.thingworx.metadata.FieldDefinition;
+import com.thingworx.types.BaseTypes;
+import com.thingworx.types.InfoTable;
+import com.thingworx.types.collections.ValueCollection;
+import com.thingworx.types.primitives.NumberPrimitive;
+import com.thingworx.types.primitives.StringPrimitive;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.params.SolrParams;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request metrics of the services of a SolrThing, per service and per core: request, error, row and byte counts,
+ * and the latency distributions of the whole request and of its parts. The time of a request is split into the
+ * Solr QTime (searching inside Solr), the InfoTable conversion, and the network, which is everything else
+ * (transfer, parsing and HTTP overhead).
+ */
+public class ServiceMetrics {
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    private final Map<String, Stats> _stats = new ConcurrentHashMap<>();
+    private volatile long _since = System.currentTimeMillis();
+
+    /**
+     * Starts timing a request, {@link Request#finish()} must be called once it is done.
+     */
+    public Request start(String service, String coreName) {
+        return new Request(this.stats(service, coreName));
+    }
+
+    /**
+     * Records a request timed elsewhere, only its total latency is known.
+     */
+    public void record(String service, String coreName, long latencyMillis, long rows, boolean failed) {
+        Stats stats = this.stats(service, coreName);
+        stats.requests.increment();
+        if (failed) {
+            stats.errors.increment();
+        }
+        stats.rows.add(rows);
+        stats.total.recordMillis(latencyMillis);
+    }
+
+    public void reset() {
+        this._stats.clear();
+        this._since = System.currentTimeMillis();
+    }
+
+    public long getSince() {
+        return this._since;
+    }
+
+    /**
+     * Returns the metrics of all services and cores together.
+     */
+    public Stats getTotals() {
+        Stats totals = new Stats("", "");
+        for (Stats stats : this._stats.values()) {
+            totals.add(stats);
+        }
+        return totals;
+    }
+
+    /**
+     * @param service  only the metrics of this service, or all services if null or empty
+     * @param coreName only the metrics of this core, or all cores if null or empty
+     */
+    public InfoTable toInfoTable(String service, String coreName) {
+        InfoTable it = new InfoTable();
+        it.addField(new FieldDefinition("service", BaseTypes.STRING));
+        it.addField(new FieldDefinition("coreName", BaseTypes.STRING));
+        it.addField(new FieldDefinition("requests", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("errors", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("rows", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("bytes", BaseTypes.NUMBER));
+        for (String part : new String[]{"latency", "qtime", "network", "conversion"}) {
+            it.addField(new FieldDefinition(part + "P50", BaseTypes.NUMBER));
+            it.addField(new FieldDefinition(part + "P95", BaseTypes.NUMBER));
+            it.addField(new FieldDefinition(part + "P99", BaseTypes.NUMBER));
+            it.addField(new FieldDefinition(part + "Max", BaseTypes.NUMBER));
+        }
+        it.addField(new FieldDefinition("latencyMean", BaseTypes.NUMBER));
+
+        List<Stats> selected = new ArrayList<>();
+        for (Stats stats : this._stats.values()) {
+            if ((service == null || service.length() == 0 || service.equals(stats.service))
+                    && (coreName == null || coreName.length() == 0 || coreName.equals(stats.coreName))) {
+                selected.add(stats);
+            }
+        }
+        selected.sort((left, right) -> left.service.equals(right.service) ? left.coreName.compareTo(right.coreName) : left.service.compareTo(right.service));
+
+        for (Stats stats : selected) {
+            ValueCollection values = new ValueCollection();
+            values.put("service", new StringPrimitive(stats.service));
+            values.put("coreName", new StringPrimitive(stats.coreName));
+            values.put("requests", new NumberPrimitive((Number) stats.requests.sum()));
+            values.put("errors", new NumberPrimitive((Number) stats.errors.sum()));
+            values.put("rows", new NumberPrimitive((Number) stats.rows.sum()));
+            values.put("bytes", new NumberPrimitive((Number) stats.bytes.sum()));
+            putPercentiles(values, "latency", stats.total);
+            putPercentiles(values, "qtime", stats.qtime);
+            putPercentiles(values, "network", stats.network);
+            putPercentiles(values, "conversion", stats.conversion);
+            values.put("latencyMean", new NumberPrimitive((Number) stats.total.getMean()));
+            it.addRow(values);
+        }
+        return it;
+    }
+
+    private static void putPercentiles(ValueCollection values, String part, LatencyHistogram histogram) {
+        values.put(part + "P50", new NumberPrimitive((Number) histogram.getPercentile(50)));
+        values.put(part + "P95", new NumberPrimitive((Number) histogram.getPercentile(95)));
+        values.put(part + "P99", new NumberPrimitive((Number) histogram.getPercentile(99)));
+        values.put(part + "Max", new NumberPrimitive((Number) histogram.getMax()));
+    }
+
+    private Stats stats(String service, String coreName) {
+        String core = coreName != null ? coreName : "";
+        return this._stats.computeIfAbsent(service + KEY_SEPARATOR + core, key -> new Stats(service, core));
+    }
+
+    public static class Stats {
+        public final String service;
+        public final String coreName;
+        public final LongAdder requests = new LongAdder();
+        public final LongAdder errors = new LongAdder();
+        public final LongAdder rows = new LongAdder();
+        public final LongAdder bytes = new LongAdder();
+        public final LatencyHistogram total = new LatencyHistogram();
+        public final LatencyHistogram qtime = new LatencyHistogram();
+        public final LatencyHistogram network = new LatencyHistogram();
+        public final LatencyHistogram conversion = new LatencyHistogram();
+
+        Stats(String service, String coreName) {
+            this.service = service;
+            this.coreName = coreName;
+        }
+
+        void add(Stats other) {
+            this.requests.add(other.requests.sum());
+            this.errors.add(other.errors.sum());
+            this.rows.add(other.rows.sum());
+            this.bytes.add(other.bytes.sum());
+            this.total.add(other.total);
+            this.qtime.add(other.qtime);
+            this.network.add(other.network);
+            this.conversion.add(other.conversion);
+        }
+    }
+
+    /**
+     * Timing of a single request, not thread safe.
+     */
+    public static class Request {
+        private final Stats _stats;
+        private final long _start = System.nanoTime();
+        private final long _bytesAtStart = ResponseByteCounter.get();
+        private SolrParams _params;
+        private long _qtimeNanos = -1;
+        private long _numFound = -1;
+        private long _conversionNanos = 0;
+        private long _rows = 0;
+        private boolean _failed = false;
+
+        Request(Stats stats) {
+            this._stats = stats;
+        }
+
+        /**
+         * Remembers the parameters of the Solr query, for the slow query log.
+         */
+        public void query(SolrParams params) {
+            this._params = params;
+        }
+
+        public void response(QueryResponse response) {
+            if (response != null) {
+                this._qtimeNanos = response.getQTime() * 1000000L;
+                if (response.getResults() != null) {
+                    this._numFound = response.getResults().getNumFound();
+                }
+            }
+        }
+
+        public void conversion(long nanos) {
+            this._conversionNanos += nanos;
+        }
+
+        public void rows(long rows) {
+            this._rows += rows;
+        }
+
+        public void failed() {
+            this._failed = true;
+        }
+
+        public String getService() {
+            return this._stats.service;
+        }
+
+        public String getCoreName() {
+            return this._stats.coreName;
+        }
+
+        public SolrParams getParams() {
+            return this._params;
+        }
+
+        /**
+         * @return the Solr QTime in milliseconds, or -1 if no Solr response was received
+         */
+        public long getQTime() {
+            return this._qtimeNanos >= 0 ? this._qtimeNanos / 1000000L : -1;
+        }
+
+        public long getNumFound() {
+            return this._numFound;
+        }
+
+        public boolean isFailed() {
+            return this._failed;
+        }
+
+        /**
+         * @return the duration of the request in milliseconds
+         */
+        public long finish() {
+            long elapsed = System.nanoTime() - this._start;
+            this._stats.requests.increment();
+            if (this._failed) {
+                this._stats.errors.increment();
+            }
+            this._stats.rows.add(this._rows);
+            this._stats.bytes.add(ResponseByteCounter.get() - this._bytesAtStart);
+            this._stats.total.recordNanos(elapsed);
+            this._stats.conversion.recordNanos(this._conversionNanos);
+            if (this._qtimeNanos >= 0) {
+                this._stats.qtime.recordNanos(this._qtimeNanos);
+                this._stats.network.recordNanos(Math.max(0, elapsed - this._qtimeNanos - this._conversionNanos));
+            }
+            return elapsed / 1000000L;
+        }
+    }
+}
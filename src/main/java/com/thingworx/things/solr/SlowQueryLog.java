@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import com.thingworx.logging.LogUtilities;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Structured log of the queries slower than a threshold, plus a random sample of the other queries, one JSON object
+ * per line with the service, core, query, fq, sort, rows, QTime, elapsed time and numFound.
+ * <p>
+ * The service thread only copies these values into a bounded queue; a background worker formats and writes them,
+ * so logging never blocks a service. Entries arriving while the queue is full are dropped and counted.
+ */
+public class SlowQueryLog {
+    private static final Logger _logger = LogUtilities.getInstance().getApplicationLogger(SlowQueryLog.class);
+
+    private final long _threshold;
+    private final double _sampleRate;
+    private final BlockingQueue<Entry> _queue;
+    private final AtomicLong _dropped = new AtomicLong();
+    private final Thread _worker;
+    private volatile boolean _running = true;
+
+    /**
+     * @param threshold     duration (milliseconds) from which a query is always logged
+     * @param sampleRate    fraction (0 to 1) of the faster queries that are logged
+     * @param queueCapacity maximum number of entries waiting to be written
+     */
+    public SlowQueryLog(long threshold, double sampleRate, int queueCapacity) {
+        this._threshold = threshold;
+        this._sampleRate = sampleRate;
+        this._queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this._worker = new Thread(this::run, "SolrThing-SlowQueryLog");
+        this._worker.setDaemon(true);
+        this._worker.start();
+    }
+
+    /**
+     * Logs a finished request if it is slow or sampled, without ever blocking.
+     */
+    public void log(ServiceMetrics.Request request, long elapsed) {
+        boolean slow = elapsed >= this._threshold;
+        if (!slow && (this._sampleRate <= 0 || ThreadLocalRandom.current().nextDouble() >= this._sampleRate)) {
+            return;
+        }
+        if (!this._queue.offer(new Entry(request, elapsed, slow))) {
+            this._dropped.incrementAndGet();
+        }
+    }
+
+    public long getDroppedCount() {
+        return this._dropped.get();
+    }
+
+    public void close() {
+        this._running = false;
+        this._worker.interrupt();
+    }
+
+    private void run() {
+        while (this._running) {
+            try {
+                Entry entry = this._queue.poll(1, TimeUnit.SECONDS);
+                if (entry != null) {
+                    this.write(entry);
+                }
+                long dropped = this._dropped.getAndSet(0);
+                if (dropped > 0) {
+                    _logger.warn("Slow query log queue full, " + dropped + " entries dropped");
+                }
+            } catch (InterruptedException exceptionError) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception exceptionError) {
+                _logger.error("Could not write a slow query log entry: " + exceptionError.getMessage());
+            }
+        }
+    }
+
+    protected void write(Entry entry) throws Exception {
+        JSONObject line = new JSONObject();
+        line.put("type", entry.slow ? "slow" : "sampled");
+        line.put("service", entry.service);
+        line.put("coreName", entry.coreName);
+        line.put("elapsed", entry.elapsed);
+        if (entry.qtime >= 0) {
+            line.put("qtime", entry.qtime);
+        }
+        if (entry.numFound >= 0) {
+            line.put("numFound", entry.numFound);
+        }
+        line.put("failed", entry.failed);
+        if (entry.params != null) {
+            line.put("q", entry.params.get(CommonParams.Q));
+            String[] filterQueries = entry.params.getParams(CommonParams.FQ);
+            if (filterQueries != null) {
+                line.put("fq", new JSONArray(filterQueries));
+            }
+            line.put("sort", entry.params.get(CommonParams.SORT));
+            line.put("rows", entry.params.get(CommonParams.ROWS));
+        }
+        if (entry.slow) {
+            _logger.warn(line.toString());
+        } else {
+            _logger.info(line.toString());
+        }
+    }
+
+    protected static class Entry {
+        final String service;
+        final String coreName;
+        final SolrParams params;
+        final long qtime;
+        final long numFound;
+        final boolean failed;
+        final long elapsed;
+        final boolean slow;
+
+        Entry(ServiceMetrics.Request request, long elapsed, boolean slow) {
+            this.service = request.getService();
+            this.coreName = request.getCoreName();
+            this.params = request.getParams() != null ? new ModifiableSolrParams(request.getParams()) : null;
+            this.qtime = request.getQTime();
+            this.numFound = request.getNumFound();
+            this.failed = request.isFailed();
+            this.elapsed = elapsed;
+            this.slow = slow;
+        }
+    }
+}
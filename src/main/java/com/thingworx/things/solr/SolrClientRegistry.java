@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import com.thingworx.logging.LogUtilities;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.impl.CloudSolrClient;
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.client.solrj.io.SolrClientCache;
+import org.apache.solr.client.solrj.io.stream.CloudSolrStream;
+import org.apache.solr.client.solrj.io.stream.SolrStream;
+import org.apache.solr.client.solrj.io.stream.StreamContext;
+import org.apache.solr.client.solrj.io.stream.TupleStream;
+import org.apache.solr.common.params.SolrParams;
+import org.slf4j.Logger;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the long-lived SolrJ clients of a SolrThing, one per core, all sharing a single pooled HTTP connection manager.
+ * The registry is created when the thing is initialized and must be closed when the thing is cleaned up.
+ * <p>
+ * In standalone mode every core gets its own HttpSolrClient. In SolrCloud mode a single ZooKeeper-aware
+ * CloudSolrClient is shared by all collections, so that queries go to a live replica and updates to the shard leader.
+ * In load balanced mode a single {@link LoadBalancedSolrClient} is shared by all cores.
+ * <p>
+ * Every client uses the configured {@link WireFormat}, except for the streamed queries which are always javabin.
+ * Responses are requested gzip or deflate compressed when response compression is enabled, and the bodies of the
+ * update requests, and only those, are gzip compressed when request compression is enabled.
+ */
+public class SolrClientRegistry {
+    private static final Logger _logger = LogUtilities.getInstance().getApplicationLogger(SolrClientRegistry.class);
+    // context attribute holding the scheduled abort of a request
+    private static final String DEADLINE_ATTRIBUTE = "solrthing.deadline";
+
+    private final PoolingHttpClientConnectionManager _connectionManager;
+    private final CloseableHttpClient _httpClient;
+    private final RequestConfig _requestConfig;
+    private final CredentialsProvider _credentialsProvider;
+    private final String _wireFormat;
+    private final ScheduledExecutorService _deadlineTimer;
+    private final Map<String, SolrClient> _clients = new ConcurrentHashMap<>();
+    private String _baseURL;
+    private SolrClient _sharedClient;
+    private boolean _cloud = false;
+    private String _zkHost;
+    private SolrClientCache _streamClientCache;
+
+    /**
+     * @param username            user name for basic authentication, or empty for none
+     * @param password            password for basic authentication
+     * @param connectTimeout      timeout (milliseconds) to open a connection
+     * @param socketTimeout       maximum time (milliseconds) without receiving data during a request
+     * @param poolTimeout         timeout (milliseconds) to lease a connection from the pool
+     * @param requestDeadline     maximum total time (milliseconds) of a request, after which it is aborted, 0 for none
+     * @param maxTotal            maximum number of pooled connections
+     * @param maxPerRoute         maximum number of pooled connections per Solr host
+     * @param idleTimeout         idle time (milliseconds) after which pooled connections are evicted, 0 to disable
+     * @param wireFormat          {@link WireFormat#Javabin} or {@link WireFormat#XML}
+     * @param responseCompression whether responses are requested gzip or deflate compressed
+     * @param requestCompression  whether update bodies are sent gzip compressed (Solr must accept gzip request bodies)
+     */
+    public SolrClientRegistry(String username, String password, int connectTimeout, int socketTimeout, int poolTimeout, int requestDeadline, int maxTotal,
+                              int maxPerRoute, int idleTimeout, String wireFormat, boolean responseCompression, boolean requestCompression) {
+        this._wireFormat = wireFormat;
+        this._connectionManager = new PoolingHttpClientConnectionManager();
+        this._connectionManager.setMaxTotal(maxTotal);
+        this._connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+
+        this._requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setSocketTimeout(socketTimeout)
+                .setConnectionRequestTimeout(poolTimeout)
+                .build();
+
+        this._credentialsProvider = new BasicCredentialsProvider();
+        if (username != null && username.length() > 0) {
+            this._credentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(username, password));
+        }
+
+        HttpClientBuilder builder = HttpClientBuilder.create()
+                .setConnectionManager(this._connectionManager)
+                .setDefaultRequestConfig(this._requestConfig)
+                .setDefaultCredentialsProvider(this._credentialsProvider)
+                .evictExpiredConnections();
+        if (idleTimeout > 0) {
+            builder.evictIdleConnections((long) idleTimeout, TimeUnit.MILLISECONDS);
+        }
+        if (!responseCompression) {
+            builder.disableContentCompression();
+        }
+        if (requestCompression) {
+            // only update bodies, Solr does not decompress the bodies of the other requests (POSTed queries, schema)
+            builder.addInterceptorLast((HttpRequestInterceptor) (request, context) -> {
+                if (request instanceof HttpEntityEnclosingRequest && isUpdatePath(request.getRequestLine().getUri())) {
+                    HttpEntityEnclosingRequest enclosingRequest = (HttpEntityEnclosingRequest) request;
+                    if (enclosingRequest.getEntity() != null && enclosingRequest.getEntity().getContentEncoding() == null) {
+                        enclosingRequest.setEntity(new GzipCompressingEntity(enclosingRequest.getEntity()));
+                    }
+                }
+            });
+        }
+        // lets a call abort its HTTP request, e.g. the losing attempt of a hedged read
+        builder.addInterceptorLast(RequestAborter.interceptor());
+        if (requestDeadline > 0) {
+            // the socket timeout only bounds the time between two packets, a trickling response could last forever
+            ScheduledThreadPoolExecutor deadlineTimer = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "SolrThing-RequestDeadline");
+                thread.setDaemon(true);
+                return thread;
+            });
+            deadlineTimer.setRemoveOnCancelPolicy(true);
+            this._deadlineTimer = deadlineTimer;
+            builder.addInterceptorLast((HttpRequestInterceptor) (request, context) -> {
+                if (context.getAttribute(DEADLINE_ATTRIBUTE) == null && request instanceof HttpRequestWrapper
+                        && ((HttpRequestWrapper) request).getOriginal() instanceof HttpUriRequest && !isExportPath(request.getRequestLine().getUri())) {
+                    HttpUriRequest original = (HttpUriRequest) ((HttpRequestWrapper) request).getOriginal();
+                    context.setAttribute(DEADLINE_ATTRIBUTE, deadlineTimer.schedule(original::abort, requestDeadline, TimeUnit.MILLISECONDS));
+                }
+            });
+            builder.addInterceptorLast((HttpResponseInterceptor) (response, context) -> {
+                Object deadline = context.getAttribute(DEADLINE_ATTRIBUTE);
+                if (deadline instanceof Future) {
+                    if (response.getEntity() != null) {
+                        response.setEntity(new DeadlineEntity(response.getEntity(), (Future<?>) deadline));
+                    } else {
+                        ((Future<?>) deadline).cancel(false);
+                    }
+                }
+            });
+        } else {
+            this._deadlineTimer = null;
+        }
+        // first response interceptor, so that it counts the bytes on the wire before their decompression
+        builder.addInterceptorFirst(ResponseByteCounter.interceptor());
+        this._httpClient = builder.build();
+    }
+
+    /**
+     * Whether a request URI is sent to an update handler, e.g. /solr/core/update or /solr/core/update/json.
+     */
+    protected static boolean isUpdatePath(String uri) {
+        int queryStart = uri.indexOf('?');
+        String path = queryStart >= 0 ? uri.substring(0, queryStart) : uri;
+        return path.endsWith("/update") || path.contains("/update/");
+    }
+
+    /**
+     * Whether a request URI is sent to the export handler, whose responses are streamed for as long as they last.
+     */
+    protected static boolean isExportPath(String uri) {
+        int queryStart = uri.indexOf('?');
+        String path = queryStart >= 0 ? uri.substring(0, queryStart) : uri;
+        return path.endsWith("/export");
+    }
+
+    /**
+     * Sends the requests of every core to a single Solr node.
+     *
+     * @param baseURL the Solr webapp URL, without any core name (e.g. http://host:8983/solr)
+     */
+    public void connectStandalone(String baseURL) {
+        this._baseURL = baseURL;
+    }
+
+    /**
+     * Routes the requests of every collection through the cluster state published in ZooKeeper.
+     *
+     * @param zkHosts   ZooKeeper ensemble, as host:port entries
+     * @param zkChroot  ZooKeeper chroot of the Solr cluster, or empty for none
+     * @param zkTimeout ZooKeeper connect and session timeout in milliseconds
+     */
+    public void connectCloud(List<String> zkHosts, String zkChroot, int zkTimeout) {
+        Optional<String> chroot = zkChroot != null && zkChroot.length() > 0 ? Optional.of(zkChroot) : Optional.empty();
+        CloudSolrClient cloudClient = new CloudSolrClient.Builder(zkHosts, chroot)
+                .withHttpClient(this._httpClient)
+                .sendUpdatesOnlyToShardLeaders()
+                .build();
+        WireFormat.apply(cloudClient, this._wireFormat);
+        cloudClient.setZkConnectTimeout(zkTimeout);
+        cloudClient.setZkClientTimeout(zkTimeout);
+        this._sharedClient = cloudClient;
+        this._cloud = true;
+        this._zkHost = String.join(",", zkHosts) + (chroot.isPresent() ? chroot.get() : "");
+    }
+
+    /**
+     * Spreads the reads of every core over several standalone nodes and sends the updates to the master node.
+     *
+     * @param baseURLs            Solr webapp URLs of every node, without any core name
+     * @param masterURL           Solr webapp URL of the node receiving the updates, or null if none
+     * @param policy              {@link LoadBalancedSolrClient#RoundRobin} or {@link LoadBalancedSolrClient#LeastLatency}
+     * @param healthCheckInterval interval (milliseconds) between checks of the ejected nodes
+     * @param hedger              hedges the slow queries over two nodes, or null to never hedge
+     */
+    public void connectLoadBalanced(List<String> baseURLs, String masterURL, String policy, int healthCheckInterval, RequestHedger hedger) {
+        this._sharedClient = new LoadBalancedSolrClient(baseURLs, masterURL, this::createHttpSolrClient, policy, healthCheckInterval, hedger);
+    }
+
+    /**
+     * Returns the hedger of the load balanced nodes, or null if reads are not hedged.
+     */
+    public RequestHedger getHedger() {
+        return this._sharedClient instanceof LoadBalancedSolrClient ? ((LoadBalancedSolrClient) this._sharedClient).getHedger() : null;
+    }
+
+    public boolean isCloud() {
+        return this._cloud;
+    }
+
+    /**
+     * Returns the client bound to the given core, creating it on first use.
+     */
+    public SolrClient getClient(String coreName) {
+        String key = coreName != null ? coreName : "";
+        return this._clients.computeIfAbsent(key, this::createClient);
+    }
+
+    protected SolrClient createClient(String coreName) {
+        if (this._sharedClient != null) {
+            return new CollectionSolrClient(this._sharedClient, coreName.length() > 0 ? coreName : null);
+        }
+        return this.createHttpSolrClient(coreName.length() > 0 ? this._baseURL + "/" + coreName : this._baseURL);
+    }
+
+    protected HttpSolrClient createHttpSolrClient(String url) {
+        HttpSolrClient client = new HttpSolrClient.Builder(url).withHttpClient(this._httpClient).build();
+        WireFormat.apply(client, this._wireFormat);
+        return client;
+    }
+
+    /**
+     * Returns the URL of a core, on the node that would serve the next read, or null in SolrCloud mode.
+     */
+    public String getCoreURL(String coreName) {
+        if (this._cloud) {
+            return null;
+        }
+        String baseURL = this._sharedClient instanceof LoadBalancedSolrClient ? ((LoadBalancedSolrClient) this._sharedClient).getBaseURL() : this._baseURL;
+        return coreName != null && coreName.length() > 0 ? baseURL + "/" + coreName : baseURL;
+    }
+
+    /**
+     * Creates a tuple stream over the given request parameters (typically qt=/export), reading from every shard
+     * of the collection in SolrCloud mode, or from the core otherwise. The caller must open and close the stream.
+     */
+    public TupleStream createStream(String coreName, SolrParams params) throws IOException {
+        TupleStream stream = this._cloud ? new CloudSolrStream(this._zkHost, coreName, params) : new SolrStream(this.getCoreURL(coreName), params);
+        StreamContext context = new StreamContext();
+        synchronized (this) {
+            if (this._streamClientCache == null) {
+                this._streamClientCache = new SolrClientCache(this._httpClient);
+            }
+            context.setSolrClientCache(this._streamClientCache);
+        }
+        stream.setStreamContext(context);
+        return stream;
+    }
+
+    protected CloseableHttpClient getHttpClient() {
+        return this._httpClient;
+    }
+
+    /**
+     * Creates an HTTP client sharing the connection pool and credentials of the registry, but which never
+     * decompresses responses. Closing it leaves the pool open.
+     */
+    public CloseableHttpClient createUncompressedHttpClient() {
+        return HttpClientBuilder.create()
+                .setConnectionManager(this._connectionManager)
+                .setConnectionManagerShared(true)
+                .setDefaultRequestConfig(this._requestConfig)
+                .setDefaultCredentialsProvider(this._credentialsProvider)
+                .disableContentCompression()
+                .build();
+    }
+
+    public void close() {
+        for (SolrClient client : this._clients.values()) {
+            try {
+                client.close();
+            } catch (IOException exceptionError) {
+                _logger.warn("Error closing Solr client: " + exceptionError.getMessage());
+            }
+        }
+        this._clients.clear();
+
+        synchronized (this) {
+            if (this._streamClientCache != null) {
+                this._streamClientCache.close();
+                this._streamClientCache = null;
+            }
+        }
+
+        if (this._sharedClient != null) {
+            try {
+                this._sharedClient.close();
+            } catch (IOException exceptionError) {
+                _logger.warn("Error closing shared Solr client: " + exceptionError.getMessage());
+            }
+            this._sharedClient = null;
+        }
+
+        try {
+            this._httpClient.close();
+        } catch (IOException exceptionError) {
+            _logger.warn("Error closing Solr HTTP client: " + exceptionError.getMessage());
+        }
+        this._connectionManager.shutdown();
+        if (this._deadlineTimer != null) {
+            this._deadlineTimer.shutdownNow();
+        }
+    }
+
+    /**
+     * Cancels the deadline of a request once its response has been read to the end or closed.
+     */
+    private static class DeadlineEntity extends HttpEntityWrapper {
+        private final Future<?> _deadline;
+
+        DeadlineEntity(HttpEntity entity, Future<?> deadline) {
+            super(entity);
+            this._deadline = deadline;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return new FilterInputStream(super.getContent()) {
+                @Override
+                public int read() throws IOException {
+                    int value = super.read();
+                    if (value < 0) {
+                        DeadlineEntity.this._deadline.cancel(false);
+                    }
+                    return value;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int count = super.read(buffer, offset, length);
+                    if (count < 0) {
+                        DeadlineEntity.this._deadline.cancel(false);
+                    }
+                    return count;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    DeadlineEntity.this._deadline.cancel(false);
+                    super.close();
+                }
+            };
+        }
+    }
+}
@@ -6,49 +6,59 @@
 
 package com.thingworx.things.solr;
 
-import com.thingworx.common.utils.HttpUtilities;
 import com.thingworx.data.util.InfoTableInstanceFactory;
 import com.thingworx.datashape.DataShape;
 import com.thingworx.entities.utils.EntityUtilities;
-import com.thingworx.metadata.DataShapeDefinition;
 import com.thingworx.metadata.FieldDefinition;
+import com.thingworx.metadata.collections.FieldDefinitionCollection;
 import com.thingworx.metadata.annotations.*;
 import com.thingworx.relationships.RelationshipTypes.ThingworxRelationshipTypes;
 import com.thingworx.things.Thing;
+import com.thingworx.things.repository.FileRepositoryThing;
 import com.thingworx.types.BaseTypes;
 import com.thingworx.types.InfoTable;
 import com.thingworx.types.collections.ValueCollection;
+import com.thingworx.types.primitives.BooleanPrimitive;
+import com.thingworx.types.primitives.DatetimePrimitive;
+import com.thingworx.types.primitives.InfoTablePrimitive;
+import com.thingworx.types.primitives.NumberPrimitive;
+import com.thingworx.types.primitives.StringPrimitive;
 import com.thingworx.types.data.projections.GenericQuery;
 import com.thingworx.types.data.queries.Query;
 import com.thingworx.types.data.sorters.ISort;
 import com.thingworx.types.data.sorters.SortCollection;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.index.Term;
-import org.apache.lucene.queryparser.flexible.standard.StandardQueryParser;
-import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.util.automaton.LevenshteinAutomata;
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrQuery.ORDER;
-import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.client.solrj.io.Tuple;
+import org.apache.solr.client.solrj.io.stream.TupleStream;
 import org.apache.solr.client.solrj.response.FacetField;
 import org.apache.solr.client.solrj.response.FacetField.Count;
 import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.response.Suggestion;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.FacetParams;
+import org.apache.solr.common.params.HighlightParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.common.util.NamedList;
-import org.apache.solr.common.util.SimpleOrderedMap;
+import org.joda.time.DateTime;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.Map.Entry;
-
-import static org.apache.lucene.analysis.en.EnglishAnalyzer.ENGLISH_STOP_WORDS_SET;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * An implementation of the Apache Solr API v7.5.0 for Thingworx 8.0 using the SolrJ library
@@ -96,184 +106,1115 @@ import static org.apache.lucene.analysis.en.EnglishAnalyzer.ENGLISH_STOP_WORDS_S
                                 baseType = "PASSWORD"
                         ), @ThingworxFieldDefinition(
                                 name = "timeout",
-                                description = "Timeout (milliseconds) to execute a request",
+                                description = "Socket timeout (milliseconds): maximum time without receiving data from Solr during a request",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:60000"}
+                        ), @ThingworxFieldDefinition(
+                                name = "connectTimeout",
+                                description = "Timeout (milliseconds) to open a connection to Solr",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:5000"}
+                        ), @ThingworxFieldDefinition(
+                                name = "connectionRequestTimeout",
+                                description = "Timeout (milliseconds) to get a connection from the pool",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:5000"}
+                        ), @ThingworxFieldDefinition(
+                                name = "requestDeadline",
+                                description = "Maximum total time (milliseconds) of a request to Solr, including a slowly received response and its retries, after which it is aborted. Exports are not limited. 0 for no deadline",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:120000"}
+                        ), @ThingworxFieldDefinition(
+                                name = "maxConnectionsTotal",
+                                description = "Maximum number of pooled HTTP connections to Solr",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:100"}
+                        ), @ThingworxFieldDefinition(
+                                name = "maxConnectionsPerRoute",
+                                description = "Maximum number of pooled HTTP connections per Solr host",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:20"}
+                        ), @ThingworxFieldDefinition(
+                                name = "idleConnectionTimeout",
+                                description = "Time (milliseconds) after which idle pooled connections are closed, 0 to keep them open",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:60000"}
+                        ), @ThingworxFieldDefinition(
+                                name = "connectionMode",
+                                description = "Standalone (single serverName/serverPort node), LoadBalanced (nodes of the Servers table) or SolrCloud (ZooKeeper-aware routing to collections)",
+                                baseType = "STRING",
+                                aspects = {"defaultValue:Standalone"}
+                        ), @ThingworxFieldDefinition(
+                                name = "zkHost",
+                                description = "SolrCloud ZooKeeper ensemble, as a comma separated list of host:port",
+                                baseType = "STRING"
+                        ), @ThingworxFieldDefinition(
+                                name = "zkChroot",
+                                description = "SolrCloud ZooKeeper chroot, e.g. /solr (optional)",
+                                baseType = "STRING"
+                        ), @ThingworxFieldDefinition(
+                                name = "loadBalancingPolicy",
+                                description = "LoadBalanced mode read policy: RoundRobin or LeastLatency",
+                                baseType = "STRING",
+                                aspects = {"defaultValue:RoundRobin"}
+                        ), @ThingworxFieldDefinition(
+                                name = "healthCheckInterval",
+                                description = "LoadBalanced mode interval (milliseconds) between health checks of the ejected servers",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:5000"}
+                        ), @ThingworxFieldDefinition(
+                                name = "hedgedReads",
+                                description = "LoadBalanced mode: send a slow query to a second server as well and keep the first response",
+                                baseType = "BOOLEAN",
+                                aspects = {"defaultValue:false"}
+                        ), @ThingworxFieldDefinition(
+                                name = "hedgePercentile",
+                                description = "Percentile (0 to 100) of the observed query latency after which a query is hedged",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:95"}
+                        ), @ThingworxFieldDefinition(
+                                name = "maxHedgeRate",
+                                description = "Maximum percentage of the queries that are hedged",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:5"}
+                        ), @ThingworxFieldDefinition(
+                                name = "wireFormat",
+                                description = "Format of the requests and responses exchanged with Solr: javabin (compact binary) or XML. Streamed queries always receive javabin, SolrJ can only stream that format",
+                                baseType = "STRING",
+                                aspects = {"defaultValue:javabin"}
+                        ), @ThingworxFieldDefinition(
+                                name = "responseCompression",
+                                description = "Request gzip/deflate compressed responses (Solr must have compression enabled in its servlet container)",
+                                baseType = "BOOLEAN",
+                                aspects = {"defaultValue:true"}
+                        ), @ThingworxFieldDefinition(
+                                name = "requestCompression",
+                                description = "Send update requests gzip compressed (Solr must accept gzip encoded request bodies)",
+                                baseType = "BOOLEAN",
+                                aspects = {"defaultValue:false"}
+                        ), @ThingworxFieldDefinition(
+                                name = "federatedQueryThreads",
+                                description = "Maximum number of cores queried concurrently by ExecuteFederatedQuery",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:8"}
+                        ), @ThingworxFieldDefinition(
+                                name = "batchQueryThreads",
+                                description = "Maximum number of queries in flight for all ExecuteQueryBatch calls",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:16"}
+                        )}
+                )
+        ), @ThingworxConfigurationTableDefinition(
+                name = "QueryCache",
+                description = "Result cache of ExecuteQuery, ExecutePagedQuery and ExecuteFacetQuery, and count cache of GetNumberOfResults",
+                isMultiRow = false,
+                dataShape = @ThingworxDataShapeDefinition(
+                        fields = {@ThingworxFieldDefinition(
+                                name = "enabled",
+                                description = "Cache query results",
+                                baseType = "BOOLEAN",
+                                aspects = {"defaultValue:false"}
+                        ), @ThingworxFieldDefinition(
+                                name = "evictionPolicy",
+                                description = "Entry evicted when the cache is full: LRU (least recently used) or LFU (least frequently used)",
+                                baseType = "STRING",
+                                aspects = {"defaultValue:LRU"}
+                        ), @ThingworxFieldDefinition(
+                                name = "maxEntries",
+                                description = "Maximum number of cached results",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:1000"}
+                        ), @ThingworxFieldDefinition(
+                                name = "maxSizeKB",
+                                description = "Maximum estimated size (KB) of all cached results",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:65536"}
+                        ), @ThingworxFieldDefinition(
+                                name = "defaultTTL",
+                                description = "Time (milliseconds) a result stays cached, unless overridden for its core",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:10000"}
+                        ), @ThingworxFieldDefinition(
+                                name = "countTTL",
+                                description = "Time (milliseconds) a GetNumberOfResults count stays cached, 0 to disable (independent of enabled)",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:2000"}
+                        )}
+                )
+        ), @ThingworxConfigurationTableDefinition(
+                name = "QueryCacheCoreTTL",
+                description = "Per core overrides of the query cache time to live",
+                isMultiRow = true,
+                dataShape = @ThingworxDataShapeDefinition(
+                        fields = {@ThingworxFieldDefinition(
+                                name = "coreName",
+                                description = "Core/index name",
+                                baseType = "STRING"
+                        ), @ThingworxFieldDefinition(
+                                name = "ttl",
+                                description = "Time (milliseconds) a result of this core stays cached, 0 to never cache it",
+                                baseType = "NUMBER"
+                        )}
+                )
+        ), @ThingworxConfigurationTableDefinition(
+                name = "AsyncIndexing",
+                description = "Write-behind queue used by IndexDocument",
+                isMultiRow = false,
+                dataShape = @ThingworxDataShapeDefinition(
+                        fields = {@ThingworxFieldDefinition(
+                                name = "enabled",
+                                description = "Queue the documents of IndexDocument and send them in the background",
+                                baseType = "BOOLEAN",
+                                aspects = {"defaultValue:false"}
+                        ), @ThingworxFieldDefinition(
+                                name = "queueCapacity",
+                                description = "Maximum number of documents waiting in memory",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:10000"}
+                        ), @ThingworxFieldDefinition(
+                                name = "batchSize",
+                                description = "Maximum number of documents sent per request",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:500"}
+                        ), @ThingworxFieldDefinition(
+                                name = "flushInterval",
+                                description = "Maximum time (milliseconds) a document waits in the queue",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:1000"}
+                        ), @ThingworxFieldDefinition(
+                                name = "commitWithin",
+                                description = "Time (milliseconds) within which Solr commits the sent documents",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:1000"}
+                        ), @ThingworxFieldDefinition(
+                                name = "backpressurePolicy",
+                                description = "What to do when the queue is full: Block, Drop or Spill (to a local file)",
+                                baseType = "STRING",
+                                aspects = {"defaultValue:Block"}
+                        ), @ThingworxFieldDefinition(
+                                name = "enqueueTimeout",
+                                description = "Maximum time (milliseconds) the Block policy waits for room in the queue",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:30000"}
+                        )}
+                )
+        ), @ThingworxConfigurationTableDefinition(
+                name = "Servers",
+                description = "Solr servers used in LoadBalanced connection mode",
+                isMultiRow = true,
+                dataShape = @ThingworxDataShapeDefinition(
+                        fields = {@ThingworxFieldDefinition(
+                                name = "serverName",
+                                description = "Solr Server name",
+                                baseType = "STRING"
+                        ), @ThingworxFieldDefinition(
+                                name = "serverPort",
+                                description = "Solr Server port",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:80"}
+                        ), @ThingworxFieldDefinition(
+                                name = "useSSL",
+                                description = "Use an SSL connection",
+                                baseType = "BOOLEAN",
+                                aspects = {"defaultValue:false"}
+                        ), @ThingworxFieldDefinition(
+                                name = "isMaster",
+                                description = "Send the document updates to this server",
+                                baseType = "BOOLEAN",
+                                aspects = {"defaultValue:false"}
+                        )}
+                )
+        ), @ThingworxConfigurationTableDefinition(
+                name = "ConcurrencyLimit",
+                description = "Per core limit of the requests in flight to Solr",
+                isMultiRow = false,
+                dataShape = @ThingworxDataShapeDefinition(
+                        fields = {@ThingworxFieldDefinition(
+                                name = "enabled",
+                                description = "Limit the number of concurrent requests sent to each core",
+                                baseType = "BOOLEAN",
+                                aspects = {"defaultValue:true"}
+                        ), @ThingworxFieldDefinition(
+                                name = "maxConcurrency",
+                                description = "Maximum number of requests in flight per core",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:20"}
+                        ), @ThingworxFieldDefinition(
+                                name = "minConcurrency",
+                                description = "Lowest limit the adaptive limit can drop to",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:2"}
+                        ), @ThingworxFieldDefinition(
+                                name = "adaptive",
+                                description = "Lower the limit when requests get slower than targetLatency or Solr is overloaded, and raise it back while they are fast (AIMD)",
+                                baseType = "BOOLEAN",
+                                aspects = {"defaultValue:true"}
+                        ), @ThingworxFieldDefinition(
+                                name = "targetLatency",
+                                description = "Latency (milliseconds) above which a request is considered a sign of overload",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:2000"}
+                        ), @ThingworxFieldDefinition(
+                                name = "queueTimeout",
+                                description = "Time (milliseconds) a request waits for a free slot before being rejected, 0 to reject immediately",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:1000"}
+                        )}
+                )
+        ), @ThingworxConfigurationTableDefinition(
+                name = "Resilience",
+                description = "Per core circuit breaker and retries of the failed reads",
+                isMultiRow = false,
+                dataShape = @ThingworxDataShapeDefinition(
+                        fields = {@ThingworxFieldDefinition(
+                                name = "circuitBreaker",
+                                description = "Stop calling a core for a while when too many of its calls fail or are slow",
+                                baseType = "BOOLEAN",
+                                aspects = {"defaultValue:true"}
+                        ), @ThingworxFieldDefinition(
+                                name = "failureRateThreshold",
+                                description = "Percentage of failed calls (connection errors, timeouts, HTTP 5xx and 429) opening the circuit",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:50"}
+                        ), @ThingworxFieldDefinition(
+                                name = "slowCallThreshold",
+                                description = "Duration (milliseconds) from which a call is slow",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:10000"}
+                        ), @ThingworxFieldDefinition(
+                                name = "slowCallRateThreshold",
+                                description = "Percentage of slow calls opening the circuit",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:80"}
+                        ), @ThingworxFieldDefinition(
+                                name = "windowSize",
+                                description = "Number of recent calls of a core the rates are computed on",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:20"}
+                        ), @ThingworxFieldDefinition(
+                                name = "minimumCalls",
+                                description = "Number of calls needed before the circuit can open",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:10"}
+                        ), @ThingworxFieldDefinition(
+                                name = "openDuration",
+                                description = "Time (milliseconds) the circuit stays open before probing the core again",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:30000"}
+                        ), @ThingworxFieldDefinition(
+                                name = "halfOpenProbes",
+                                description = "Number of successful probe calls closing the circuit",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:3"}
+                        ), @ThingworxFieldDefinition(
+                                name = "maxRetries",
+                                description = "Maximum number of retries of a read failing on a transient error, 0 to never retry",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:2"}
+                        ), @ThingworxFieldDefinition(
+                                name = "retryBackoff",
+                                description = "Base delay (milliseconds) before a retry, doubled for each retry and randomized (full jitter)",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:100"}
+                        ), @ThingworxFieldDefinition(
+                                name = "maxRetryBackoff",
+                                description = "Maximum delay (milliseconds) before a retry",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:2000"}
+                        )}
+                )
+        ), @ThingworxConfigurationTableDefinition(
+                name = "SlowQueryLog",
+                description = "Structured log of the slow queries, written asynchronously",
+                isMultiRow = false,
+                dataShape = @ThingworxDataShapeDefinition(
+                        fields = {@ThingworxFieldDefinition(
+                                name = "enabled",
+                                description = "Log the slow queries and a sample of the other queries",
+                                baseType = "BOOLEAN",
+                                aspects = {"defaultValue:true"}
+                        ), @ThingworxFieldDefinition(
+                                name = "threshold",
+                                description = "Duration (milliseconds) from which a query is always logged (as a warning)",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:1000"}
+                        ), @ThingworxFieldDefinition(
+                                name = "sampleRate",
+                                description = "Fraction (0 to 1) of the faster queries that are logged (as info), 0 to log only the slow queries",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:0.01"}
+                        ), @ThingworxFieldDefinition(
+                                name = "queueCapacity",
+                                description = "Maximum number of entries waiting to be written, further entries are dropped",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:1000"}
+                        )}
+                )
+        ), @ThingworxConfigurationTableDefinition(
+                name = "Highlighting",
+                description = "Highlighting of ExecutePHQuery",
+                isMultiRow = false,
+                dataShape = @ThingworxDataShapeDefinition(
+                        fields = {@ThingworxFieldDefinition(
+                                name = "fields",
+                                description = "Comma separated list of the fields to highlight, the STRING fields of the data shape if empty",
+                                baseType = "STRING"
+                        ), @ThingworxFieldDefinition(
+                                name = "method",
+                                description = "Highlighter: unified (uses the offsets stored in the index when available), original or fastVector",
+                                baseType = "STRING",
+                                aspects = {"defaultValue:unified"}
+                        ), @ThingworxFieldDefinition(
+                                name = "fragmentSize",
+                                description = "Approximate size (characters) of a snippet, 0 to highlight whole fields. Snippets replace the field values, so a non-zero size returns fragments of the fields",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:0"}
+                        ), @ThingworxFieldDefinition(
+                                name = "snippets",
+                                description = "Maximum number of snippets per field",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:1"}
+                        ), @ThingworxFieldDefinition(
+                                name = "preTag",
+                                description = "Text inserted before a highlighted term",
+                                baseType = "STRING",
+                                aspects = {"defaultValue:<span style=\"background-color: #FFFF00\">"}
+                        ), @ThingworxFieldDefinition(
+                                name = "postTag",
+                                description = "Text inserted after a highlighted term",
+                                baseType = "STRING",
+                                aspects = {"defaultValue:</span>"}
+                        )}
+                )
+        ), @ThingworxConfigurationTableDefinition(
+                name = "Suggest",
+                description = "Typeahead suggestions of ExecuteSuggest, and the cache of the suggestions by prefix",
+                isMultiRow = false,
+                dataShape = @ThingworxDataShapeDefinition(
+                        fields = {@ThingworxFieldDefinition(
+                                name = "requestHandler",
+                                description = "Request handler of the Solr suggest component",
+                                baseType = "STRING",
+                                aspects = {"defaultValue:/suggest"}
+                        ), @ThingworxFieldDefinition(
+                                name = "maxEntries",
+                                description = "Maximum number of prefixes whose suggestions are cached, 0 to disable the cache",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:10000"}
+                        ), @ThingworxFieldDefinition(
+                                name = "ttl",
+                                description = "Time (milliseconds) the suggestions of a prefix are cached",
                                 baseType = "NUMBER",
                                 aspects = {"defaultValue:60000"}
                         )}
                 )
+        ), @ThingworxConfigurationTableDefinition(
+                name = "SchemaCache",
+                description = "Cache of the core schemas, used by GetDatashape, SyncDatashapes and the cursor based services",
+                isMultiRow = false,
+                dataShape = @ThingworxDataShapeDefinition(
+                        fields = {@ThingworxFieldDefinition(
+                                name = "refreshInterval",
+                                description = "Time (milliseconds) a schema is used before checking whether it changed",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:300000"}
+                        )}
+                )
+        ), @ThingworxConfigurationTableDefinition(
+                name = "Metrics",
+                description = "Request metrics of the services, see GetMetrics",
+                isMultiRow = false,
+                dataShape = @ThingworxDataShapeDefinition(
+                        fields = {@ThingworxFieldDefinition(
+                                name = "publishInterval",
+                                description = "Minimum time (milliseconds) between two updates of the metrics properties, 0 to never update them",
+                                baseType = "NUMBER",
+                                aspects = {"defaultValue:10000"}
+                        )}
+                )
+        )}
+)
+@ThingworxPropertyDefinitions(
+        properties = {@ThingworxPropertyDefinition(
+                name = "requestCount",
+                description = "Number of service requests since the metrics were reset",
+                category = "Metrics",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true"}
+        ), @ThingworxPropertyDefinition(
+                name = "errorCount",
+                description = "Number of failed service requests since the metrics were reset",
+                category = "Metrics",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true"}
+        ), @ThingworxPropertyDefinition(
+                name = "latencyP50",
+                description = "Median latency (milliseconds) of the service requests",
+                category = "Metrics",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true"}
+        ), @ThingworxPropertyDefinition(
+                name = "latencyP95",
+                description = "95th percentile latency (milliseconds) of the service requests",
+                category = "Metrics",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true"}
+        ), @ThingworxPropertyDefinition(
+                name = "latencyP99",
+                description = "99th percentile latency (milliseconds) of the service requests",
+                category = "Metrics",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true"}
+        ), @ThingworxPropertyDefinition(
+                name = "latencyMax",
+                description = "Maximum latency (milliseconds) of the service requests",
+                category = "Metrics",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true"}
+        ), @ThingworxPropertyDefinition(
+                name = "rowsConverted",
+                description = "Number of documents converted to InfoTable rows",
+                category = "Metrics",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true"}
+        ), @ThingworxPropertyDefinition(
+                name = "bytesReceived",
+                description = "Number of response bytes received from Solr",
+                category = "Metrics",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true"}
+        ), @ThingworxPropertyDefinition(
+                name = "inFlightRequests",
+                description = "Number of requests in flight to Solr, all cores together",
+                category = "Metrics",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true"}
+        ), @ThingworxPropertyDefinition(
+                name = "rejectedRequests",
+                description = "Number of requests rejected by the concurrency limit, all cores together",
+                category = "Metrics",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true"}
+        ), @ThingworxPropertyDefinition(
+                name = "openCircuits",
+                description = "Number of cores whose circuit breaker is open or half open",
+                category = "Metrics",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true"}
         )}
 )
 public class SolrThing extends Thing {
+    private static final long serialVersionUID = 1L;
     public static final String SOLR_WEBAPP = "solr";
+    // description of the DataShape fields created from a core schema
+    public static final String SCHEMA_FIELD = "solr-schema";
     private String _serverName;
     private int _serverPort = 80;
     private Boolean _useSSL = false;
     private String _username = "";
     private String _password = "";
     private int _timeout = 60000;
+    private int _maxConnectionsTotal = 100;
+    private int _maxConnectionsPerRoute = 20;
+    private int _idleConnectionTimeout = 60000;
+    private String _connectionMode = ConnectionModes.Standalone;
+    private String _zkHost = "";
+    private String _zkChroot = "";
+    private String _loadBalancingPolicy = LoadBalancedSolrClient.RoundRobin;
+    private int _healthCheckInterval = 5000;
+    private boolean _hedgedReads = false;
+    private int _hedgePercentile = 95;
+    private int _maxHedgeRate = 5;
+    private String _wireFormat = WireFormat.Javabin;
+    private boolean _responseCompression = true;
+    private boolean _requestCompression = false;
+    private SolrClientRegistry _clientRegistry;
+    private QueryResultCache _queryCache;
+    private CountCache _countCache;
+    private AsyncIndexer _asyncIndexer;
+    private FederatedSearch _federatedSearch;
+    private QueryBatch _queryBatch;
+    private SchemaCache _schemaCache = new SchemaCache(300000);
+    private final FuzzyQueryBuilder _fuzzyQueries = new FuzzyQueryBuilder(1000);
+    private SuggestionCache _suggestionCache;
+    private String _suggestHandler = "/suggest";
+    private String _highlightFields = "";
+    private String _highlightMethod = "unified";
+    private int _highlightFragmentSize = 0;
+    private int _highlightSnippets = 1;
+    private String _highlightPreTag = "<span style=\"background-color: #FFFF00\">";
+    private String _highlightPostTag = "</span>";
+    private final Map<String, RowMappingPlan> _mappingPlans = new ConcurrentHashMap<>();
+    private final ServiceMetrics _metrics = new ServiceMetrics();
+    private SlowQueryLog _slowQueryLog;
+    private final Map<String, SolrClient> _coreClients = new ConcurrentHashMap<>();
+    private final Map<String, ConcurrencyLimiter> _concurrencyLimiters = new ConcurrentHashMap<>();
+    private final Map<String, CircuitBreaker> _circuitBreakers = new ConcurrentHashMap<>();
+    private boolean _concurrencyLimit = true;
+    private int _minConcurrency = 2;
+    private int _maxConcurrency = 20;
+    private boolean _adaptiveConcurrency = true;
+    private int _targetLatency = 2000;
+    private int _queueTimeout = 1000;
+    private int _connectTimeout = 5000;
+    private int _connectionRequestTimeout = 5000;
+    private int _requestDeadline = 120000;
+    private boolean _circuitBreaker = true;
+    private int _failureRateThreshold = 50;
+    private int _slowCallThreshold = 10000;
+    private int _slowCallRateThreshold = 80;
+    private int _breakerWindowSize = 20;
+    private int _breakerMinimumCalls = 10;
+    private int _openDuration = 30000;
+    private int _halfOpenProbes = 3;
+    private int _maxRetries = 2;
+    private int _retryBackoff = 100;
+    private int _maxRetryBackoff = 2000;
+    private final AtomicLong _lastMetricsPublish = new AtomicLong();
+    private int _metricsPublishInterval = 10000;
 
     public SolrThing() {
     }
 
+    /**
+     * Logs a summary of a response at debug level, and its documents at trace level. The services do not call it:
+     * slow queries are reported by the slow query log instead.
+     */
     public static void print(QueryResponse response) {
+        if (!_logger.isDebugEnabled()) {
+            return;
+        }
         SolrDocumentList docs = response.getResults();
         if (docs != null) {
-            _logger.info(docs.getNumFound() + " documents found, " + docs.size() + " returned : ");
-
-            for (int i = 0; i < docs.size(); ++i) {
-                SolrDocument doc = docs.get(i);
-                _logger.info(doc.toString());
+            _logger.debug(docs.getNumFound() + " documents found, " + docs.size() + " returned");
+            if (_logger.isTraceEnabled()) {
+                for (SolrDocument doc : docs) {
+                    _logger.trace(doc.toString());
+                }
             }
         }
 
         List<FacetField> fieldFacets = response.getFacetFields();
-        Iterator wordsIterator;
-        if (fieldFacets != null && !fieldFacets.isEmpty()) {
-            System.out.println("\nField Facets : ");
-
-            for (Iterator facetFieldIterator = fieldFacets.iterator(); facetFieldIterator.hasNext(); System.out.println("\u0099")) {
-                FacetField fieldFacet = (FacetField) facetFieldIterator.next();
-                System.out.print("\t" + fieldFacet.getName() + " :\t");
-                if (fieldFacet.getValueCount() > 0) {
-                    wordsIterator = fieldFacet.getValues().iterator();
-
-                    while (wordsIterator.hasNext()) {
-                        Count count = (Count) wordsIterator.next();
-                        System.out.print(count.getName() + "[" + count.getCount() + "]\t");
+        if (fieldFacets != null) {
+            for (FacetField fieldFacet : fieldFacets) {
+                StringBuilder line = new StringBuilder("Field facet ").append(fieldFacet.getName()).append(" :");
+                if (fieldFacet.getValues() != null) {
+                    for (Count count : fieldFacet.getValues()) {
+                        line.append(' ').append(count.getName()).append('[').append(count.getCount()).append(']');
                     }
                 }
+                _logger.debug(line.toString());
             }
         }
 
         Map<String, Integer> queryFacets = response.getFacetQuery();
-        if (queryFacets != null && !queryFacets.isEmpty()) {
-            System.out.println("\u0099\nQuery facets : ");
-            Iterator stringIterator = queryFacets.keySet().iterator();
-
-            while (stringIterator.hasNext()) {
-                String queryFacet = (String) stringIterator.next();
-                System.out.println("\t" + queryFacet + "\t[" + queryFacets.get(queryFacet) + "]");
+        if (queryFacets != null) {
+            for (Entry<String, Integer> queryFacet : queryFacets.entrySet()) {
+                _logger.debug("Query facet " + queryFacet.getKey() + " [" + queryFacet.getValue() + "]");
             }
-
-            System.out.println("\u0099");
         }
 
-        NamedList<NamedList<Object>> spellCheckResponse = (NamedList) response.getResponse().get("spellcheck");
+        NamedList<?> spellCheckResponse = (NamedList<?>) response.getResponse().get("spellcheck");
         if (spellCheckResponse != null) {
-            for (wordsIterator = spellCheckResponse.iterator(); wordsIterator.hasNext(); System.out.println("\u0099")) {
-                Entry<String, NamedList<Object>> entry = (Entry) wordsIterator.next();
-                String word = entry.getKey();
-                NamedList<Object> spellCheckWordResponse = entry.getValue();
-                boolean correct = spellCheckWordResponse.get("frequency").equals(1);
-                System.out.println("Word: " + word + ",\tCorrect?: " + correct);
-                NamedList<Integer> suggestions = (NamedList) spellCheckWordResponse.get("suggestions");
-                if (suggestions != null && suggestions.size() > 0) {
-                    System.out.println("Suggestions : ");
-                    Iterator suggestionsIterator = suggestions.iterator();
-
-                    while (suggestionsIterator.hasNext()) {
-                        System.out.println("\t" + ((Entry) suggestionsIterator.next()).getKey());
+            for (Entry<String, ?> entry : spellCheckResponse) {
+                NamedList<?> spellCheckWordResponse = (NamedList<?>) entry.getValue();
+                NamedList<?> suggestions = (NamedList<?>) spellCheckWordResponse.get("suggestions");
+                StringBuilder line = new StringBuilder("Word: ").append(entry.getKey())
+                        .append(", correct: ").append(Integer.valueOf(1).equals(spellCheckWordResponse.get("frequency")));
+                if (suggestions != null) {
+                    for (Entry<String, ?> suggestion : suggestions) {
+                        line.append(' ').append(suggestion.getKey());
                     }
                 }
+                _logger.debug(line.toString());
             }
         }
-
     }
 
-    protected void initializeThing() {
+    protected void initializeThing() throws Exception {
         this._serverName = (String) this.getConfigurationSetting("ConnectionInfo", "serverName");
         this._serverPort = ((Number) this.getConfigurationSetting("ConnectionInfo", "serverPort")).intValue();
         this._username = (String) this.getConfigurationSetting("ConnectionInfo", "userName");
         this._password = (String) this.getConfigurationSetting("ConnectionInfo", "password");
         this._timeout = ((Number) this.getConfigurationSetting("ConnectionInfo", "timeout")).intValue();
         this._useSSL = (Boolean) this.getConfigurationSetting("ConnectionInfo", "useSSL");
-    }
+        this._maxConnectionsTotal = this.getIntConfigurationSetting(ConfigConstants.MaxConnectionsTotal, this._maxConnectionsTotal);
+        this._maxConnectionsPerRoute = this.getIntConfigurationSetting(ConfigConstants.MaxConnectionsPerRoute, this._maxConnectionsPerRoute);
+        this._idleConnectionTimeout = this.getIntConfigurationSetting(ConfigConstants.IdleConnectionTimeout, this._idleConnectionTimeout);
+        this._connectionMode = this.getStringConfigurationSettingWithDefault(ConfigConstants.ConnectionInfo, ConfigConstants.ConnectionMode, ConnectionModes.Standalone);
+        this._zkHost = this.getStringConfigurationSettingWithDefault(ConfigConstants.ConnectionInfo, ConfigConstants.ZkHost, "");
+        this._zkChroot = this.getStringConfigurationSettingWithDefault(ConfigConstants.ConnectionInfo, ConfigConstants.ZkChroot, "");
+        this._loadBalancingPolicy = this.getStringConfigurationSettingWithDefault(ConfigConstants.ConnectionInfo, ConfigConstants.LoadBalancingPolicy, LoadBalancedSolrClient.RoundRobin);
+        this._healthCheckInterval = this.getIntConfigurationSetting(ConfigConstants.HealthCheckInterval, this._healthCheckInterval);
+        this._hedgedReads = Boolean.TRUE.equals(this.getConfigurationSetting(ConfigConstants.ConnectionInfo, ConfigConstants.HedgedReads));
+        this._hedgePercentile = this.getIntConfigurationSetting(ConfigConstants.HedgePercentile, this._hedgePercentile);
+        this._maxHedgeRate = this.getIntConfigurationSetting(ConfigConstants.MaxHedgeRate, this._maxHedgeRate);
+        this._wireFormat = this.getStringConfigurationSettingWithDefault(ConfigConstants.ConnectionInfo, ConfigConstants.WireFormat, WireFormat.Javabin);
+        this._responseCompression = !Boolean.FALSE.equals(this.getConfigurationSetting(ConfigConstants.ConnectionInfo, ConfigConstants.ResponseCompression));
+        this._requestCompression = Boolean.TRUE.equals(this.getConfigurationSetting(ConfigConstants.ConnectionInfo, ConfigConstants.RequestCompression));
+        this._connectTimeout = this.getIntConfigurationSetting(ConfigConstants.ConnectTimeout, this._connectTimeout);
+        this._connectionRequestTimeout = this.getIntConfigurationSetting(ConfigConstants.ConnectionRequestTimeout, this._connectionRequestTimeout);
+        this._requestDeadline = this.getIntConfigurationSetting(ConfigConstants.RequestDeadline, this._requestDeadline);
+
+        if (!WireFormat.isSupported(this._wireFormat)) {
+            throw new Exception("Unsupported wireFormat [" + this._wireFormat + "], use " + WireFormat.Javabin + " or " + WireFormat.XML);
+        }
 
-    @ThingworxServiceDefinition(
-            name = "GetNumberOfResults",
-            description = "Returns the number of results for the specified query as a Number:Double type"
-    )
-    @ThingworxServiceResult(
-            name = "result",
-            description = "Result",
-            baseType = "NUMBER"
-    )
-    public Double GetNumberOfResults(@ThingworxServiceParameter(name = "coreName", description = "Core/index name", baseType = "STRING") String coreName,
-                                     @ThingworxServiceParameter(name = "query", description = "Solr query string", baseType = "STRING") String query,
-                                     @ThingworxServiceParameter(name = "sortExpression", description = "Sort expression", baseType = "QUERY") JSONObject sortExpression,
-                                     @ThingworxServiceParameter(name = "filterQuery", description = "fq parameter from Solr API", baseType = "STRING") String filterQuery,
-                                     @ThingworxServiceParameter(name = "dataShape", description = "Data shape", baseType = "DATASHAPENAME") String dataShape)
-            throws Exception {
+        boolean cloudMode = ConnectionModes.SolrCloud.equalsIgnoreCase(this._connectionMode);
+        if (cloudMode && splitList(this._zkHost).isEmpty()) {
+            throw new Exception("SolrCloud connection mode requires at least one ZooKeeper host in zkHost");
+        }
 
-        int maxItems = 0;
+        boolean loadBalancedMode = ConnectionModes.LoadBalanced.equalsIgnoreCase(this._connectionMode);
+        List<String> serverURLs = new ArrayList<>();
+        String masterURL = null;
+        if (loadBalancedMode) {
+            for (ValueCollection row : this.getConfigurationTable(ConfigConstants.Servers).getRows()) {
+                Object port = row.getValue(ConfigConstants.ServerPort);
+                String serverURL = buildBaseURL(Boolean.TRUE.equals(row.getValue(ConfigConstants.UseSSL)), (String) row.getValue(ConfigConstants.ServerName),
+                        port instanceof Number ? ((Number) port).intValue() : 80, null).toString();
+                serverURLs.add(serverURL);
+                if (Boolean.TRUE.equals(row.getValue(ConfigConstants.IsMaster))) {
+                    masterURL = serverURL;
+                }
+            }
+            if (serverURLs.isEmpty()) {
+                throw new Exception("LoadBalanced connection mode requires at least one server in the Servers configuration table");
+            }
+        }
 
-        DataShape ds = (DataShape) EntityUtilities.findEntity(dataShape, ThingworxRelationshipTypes.DataShape);
-        if (ds == null) {
-            throw new Exception("Could not execute query because the Datashape does not exist, or a Datashape was not specified [" + dataShape + "]");
+        int timeout = this._timeout > 0 ? this._timeout : 60000;
+        this._clientRegistry = new SolrClientRegistry(this._username, this._password, this._connectTimeout, timeout, this._connectionRequestTimeout,
+                this._requestDeadline, this._maxConnectionsTotal, this._maxConnectionsPerRoute, this._idleConnectionTimeout,
+                this._wireFormat, this._responseCompression, this._requestCompression);
+        if (cloudMode) {
+            this._clientRegistry.connectCloud(splitList(this._zkHost), this._zkChroot, timeout);
+        } else if (loadBalancedMode) {
+            this._clientRegistry.connectLoadBalanced(serverURLs, masterURL, this._loadBalancingPolicy, this._healthCheckInterval,
+                    this._hedgedReads && serverURLs.size() > 1 ? new RequestHedger(this._hedgePercentile, this._maxHedgeRate) : null);
         } else {
-            InfoTable it = InfoTableInstanceFactory.createInfoTableFromDataShape(ds.getDataShape());
-            double timeout = 60000.0D;
-            if (this._timeout > 0) {
-                timeout = (double) this._timeout;
-            }
-            boolean ignoreSSLErrors = false;
-            boolean useNTLM = false;
-            boolean useProxy = false;
-            CloseableHttpClient client = HttpUtilities.createHttpClient(this._username, this._password, ignoreSSLErrors, timeout, useNTLM, "", "", useProxy, "", -1, "");
-            SolrClient server = new HttpSolrClient.Builder(this.buildBaseURL(coreName).toString()).withHttpClient(client).build();
-            SolrQuery solrQuery = new SolrQuery();
-            solrQuery.setQuery(query);
-            solrQuery.setStart(0);
-            solrQuery.setRows(maxItems);
+            this._clientRegistry.connectStandalone(this.buildBaseURL(null).toString());
+        }
 
-            if (filterQuery != null) {
-                solrQuery.addFilterQuery(String.valueOf(filterQuery));
+        this._queryCache = null;
+        if (Boolean.TRUE.equals(this.getConfigurationSetting(ConfigConstants.QueryCache, ConfigConstants.Enabled))) {
+            QueryResultCache queryCache = new QueryResultCache(
+                    this.getStringConfigurationSettingWithDefault(ConfigConstants.QueryCache, ConfigConstants.EvictionPolicy, QueryResultCache.LRU),
+                    this.getIntConfigurationSetting(ConfigConstants.QueryCache, ConfigConstants.MaxEntries, 1000),
+                    1024L * this.getIntConfigurationSetting(ConfigConstants.QueryCache, ConfigConstants.MaxSizeKB, 65536),
+                    this.getIntConfigurationSetting(ConfigConstants.QueryCache, ConfigConstants.DefaultTTL, 10000));
+            for (ValueCollection row : this.getConfigurationTable(ConfigConstants.QueryCacheCoreTTL).getRows()) {
+                Object ttl = row.getValue(ConfigConstants.TTL);
+                if (row.getValue(ConfigConstants.CoreName) != null && ttl instanceof Number) {
+                    queryCache.setCoreTTL((String) row.getValue(ConfigConstants.CoreName), ((Number) ttl).longValue());
+                }
             }
+            this._queryCache = queryCache;
+        }
 
-            if (sortExpression != null) {
-                Query sortQuery = new Query(sortExpression);
-                SortCollection sorters = (SortCollection) sortQuery.getSorters();
-                Iterator sortIterator = sorters.getSorters().iterator();
+        int countTTL = this.getIntConfigurationSetting(ConfigConstants.QueryCache, ConfigConstants.CountTTL, 2000);
+        this._countCache = countTTL > 0 ? new CountCache(countTTL, this.getIntConfigurationSetting(ConfigConstants.QueryCache, ConfigConstants.MaxEntries, 1000)) : null;
+
+        this._asyncIndexer = null;
+        if (Boolean.TRUE.equals(this.getConfigurationSetting(ConfigConstants.AsyncIndexing, ConfigConstants.Enabled))) {
+            // through the core clients, so that queued documents share the concurrency limit and circuit breaker of their core
+            SolrClientRegistry registry = this._clientRegistry;
+            int commitWithin = this.getIntConfigurationSetting(ConfigConstants.AsyncIndexing, ConfigConstants.CommitWithin, 1000);
+            this._asyncIndexer = new AsyncIndexer(core -> this.getCoreClient(registry, core), core -> this.invalidateCachedResults(core, commitWithin),
+                    this.getIntConfigurationSetting(ConfigConstants.AsyncIndexing, ConfigConstants.QueueCapacity, 10000),
+                    this.getIntConfigurationSetting(ConfigConstants.AsyncIndexing, ConfigConstants.BatchSize, 500),
+                    this.getIntConfigurationSetting(ConfigConstants.AsyncIndexing, ConfigConstants.FlushInterval, 1000),
+                    commitWithin,
+                    this.getStringConfigurationSettingWithDefault(ConfigConstants.AsyncIndexing, ConfigConstants.BackpressurePolicy, AsyncIndexer.Block),
+                    this.getIntConfigurationSetting(ConfigConstants.AsyncIndexing, ConfigConstants.EnqueueTimeout, 30000));
+        }
 
-                while (sortIterator.hasNext()) {
-                    ISort sorter = (ISort) sortIterator.next();
-                    if (sorter.isAscending()) {
-                        solrQuery.addSort(SolrQuery.SortClause.create(sorter.getFieldName(), ORDER.asc));
-                    } else {
-                        solrQuery.addSort(SolrQuery.SortClause.create(sorter.getFieldName(), ORDER.desc));
-                    }
-                }
+        this._federatedSearch = new FederatedSearch(Math.max(1, this.getIntConfigurationSetting(ConfigConstants.FederatedQueryThreads, 8)));
+        this._queryBatch = new QueryBatch(Math.max(1, this.getIntConfigurationSetting(ConfigConstants.BatchQueryThreads, 16)));
+        this._metricsPublishInterval = this.getIntConfigurationSetting(ConfigConstants.Metrics, ConfigConstants.PublishInterval, 10000);
+        this._schemaCache = new SchemaCache(this.getIntConfigurationSetting(ConfigConstants.SchemaCache, ConfigConstants.RefreshInterval, 300000));
+        this._suggestHandler = this.getStringConfigurationSettingWithDefault(ConfigConstants.Suggest, ConfigConstants.RequestHandler, this._suggestHandler);
+        this._highlightFields = this.getStringConfigurationSettingWithDefault(ConfigConstants.Highlighting, ConfigConstants.Fields, this._highlightFields);
+        this._highlightMethod = this.getStringConfigurationSettingWithDefault(ConfigConstants.Highlighting, ConfigConstants.Method, this._highlightMethod);
+        this._highlightFragmentSize = this.getIntConfigurationSetting(ConfigConstants.Highlighting, ConfigConstants.FragmentSize, this._highlightFragmentSize);
+        this._highlightSnippets = this.getIntConfigurationSetting(ConfigConstants.Highlighting, ConfigConstants.Snippets, this._highlightSnippets);
+        this._highlightPreTag = this.getStringConfigurationSettingWithDefault(ConfigConstants.Highlighting, ConfigConstants.PreTag, this._highlightPreTag);
+        this._highlightPostTag = this.getStringConfigurationSettingWithDefault(ConfigConstants.Highlighting, ConfigConstants.PostTag, this._highlightPostTag);
+        this._suggestionCache = new SuggestionCache(this.getIntConfigurationSetting(ConfigConstants.Suggest, ConfigConstants.MaxEntries, 10000),
+                this.getIntConfigurationSetting(ConfigConstants.Suggest, ConfigConstants.TTL, 60000));
+
+        this._concurrencyLimit = !Boolean.FALSE.equals(this.getConfigurationSetting(ConfigConstants.ConcurrencyLimit, ConfigConstants.Enabled));
+        this._maxConcurrency = this.getIntConfigurationSetting(ConfigConstants.ConcurrencyLimit, ConfigConstants.MaxConcurrency, 20);
+        this._minConcurrency = this.getIntConfigurationSetting(ConfigConstants.ConcurrencyLimit, ConfigConstants.MinConcurrency, 2);
+        this._adaptiveConcurrency = !Boolean.FALSE.equals(this.getConfigurationSetting(ConfigConstants.ConcurrencyLimit, ConfigConstants.Adaptive));
+        this._targetLatency = this.getIntConfigurationSetting(ConfigConstants.ConcurrencyLimit, ConfigConstants.TargetLatency, 2000);
+        this._queueTimeout = this.getIntConfigurationSetting(ConfigConstants.ConcurrencyLimit, ConfigConstants.QueueTimeout, 1000);
+
+        this._circuitBreaker = !Boolean.FALSE.equals(this.getConfigurationSetting(ConfigConstants.Resilience, ConfigConstants.CircuitBreaker));
+        this._failureRateThreshold = this.getIntConfigurationSetting(ConfigConstants.Resilience, ConfigConstants.FailureRateThreshold, 50);
+        this._slowCallThreshold = this.getIntConfigurationSetting(ConfigConstants.Resilience, ConfigConstants.SlowCallThreshold, 10000);
+        this._slowCallRateThreshold = this.getIntConfigurationSetting(ConfigConstants.Resilience, ConfigConstants.SlowCallRateThreshold, 80);
+        this._breakerWindowSize = this.getIntConfigurationSetting(ConfigConstants.Resilience, ConfigConstants.WindowSize, 20);
+        this._breakerMinimumCalls = this.getIntConfigurationSetting(ConfigConstants.Resilience, ConfigConstants.MinimumCalls, 10);
+        this._openDuration = this.getIntConfigurationSetting(ConfigConstants.Resilience, ConfigConstants.OpenDuration, 30000);
+        this._halfOpenProbes = this.getIntConfigurationSetting(ConfigConstants.Resilience, ConfigConstants.HalfOpenProbes, 3);
+        this._maxRetries = this.getIntConfigurationSetting(ConfigConstants.Resilience, ConfigConstants.MaxRetries, 2);
+        this._retryBackoff = this.getIntConfigurationSetting(ConfigConstants.Resilience, ConfigConstants.RetryBackoff, 100);
+        this._maxRetryBackoff = this.getIntConfigurationSetting(ConfigConstants.Resilience, ConfigConstants.MaxRetryBackoff, 2000);
+
+        this._slowQueryLog = null;
+        if (!Boolean.FALSE.equals(this.getConfigurationSetting(ConfigConstants.SlowQueryLog, ConfigConstants.Enabled))) {
+            Object sampleRate = this.getConfigurationSetting(ConfigConstants.SlowQueryLog, ConfigConstants.SampleRate);
+            this._slowQueryLog = new SlowQueryLog(
+                    this.getIntConfigurationSetting(ConfigConstants.SlowQueryLog, ConfigConstants.Threshold, 1000),
+                    sampleRate instanceof Number ? ((Number) sampleRate).doubleValue() : 0.01D,
+                    this.getIntConfigurationSetting(ConfigConstants.SlowQueryLog, ConfigConstants.QueueCapacity, 1000));
+        }
+    }
+
+    @Override
+    protected void cleanupThing() throws Exception {
+        this._schemaCache.invalidate(null);
+        this._suggestionCache = null;
+        this._mappingPlans.clear();
+        this._coreClients.clear();
+        this._concurrencyLimiters.clear();
+        this._circuitBreakers.clear();
+        if (this._asyncIndexer != null) {
+            this._asyncIndexer.close(this._timeout > 0 ? this._timeout : 60000);
+            this._asyncIndexer = null;
+        }
+        if (this._federatedSearch != null) {
+            this._federatedSearch.close();
+            this._federatedSearch = null;
+        }
+        if (this._queryBatch != null) {
+            this._queryBatch.close();
+            this._queryBatch = null;
+        }
+        if (this._slowQueryLog != null) {
+            this._slowQueryLog.close();
+            this._slowQueryLog = null;
+        }
+        if (this._clientRegistry != null) {
+            this._clientRegistry.close();
+            this._clientRegistry = null;
+        }
+        if (this._queryCache != null) {
+            this._queryCache.invalidate(null);
+            this._queryCache = null;
+        }
+        this._countCache = null;
+        super.cleanupThing();
+    }
+
+    protected SolrClient getSolrClient(String coreName) throws Exception {
+        return this.getCoreClient(this.getClientRegistry(), coreName);
+    }
+
+    /**
+     * Returns the client of a core, behind its circuit breaker and read retries, then its concurrency limiter, as
+     * enabled in the configuration. Each retry goes through the concurrency limiter again.
+     */
+    protected SolrClient getCoreClient(SolrClientRegistry registry, String coreName) {
+        return this._coreClients.computeIfAbsent(coreName != null ? coreName : "", core -> {
+            SolrClient client = registry.getClient(core);
+            if (this._concurrencyLimit) {
+                ConcurrencyLimiter limiter = new ConcurrencyLimiter(core, this._minConcurrency, this._maxConcurrency, this._adaptiveConcurrency,
+                        this._targetLatency, this._queueTimeout);
+                this._concurrencyLimiters.put(core, limiter);
+                client = new LimitedSolrClient(client, limiter);
+            }
+            CircuitBreaker breaker = null;
+            if (this._circuitBreaker) {
+                breaker = new CircuitBreaker(core, this._failureRateThreshold, this._slowCallThreshold, this._slowCallRateThreshold,
+                        this._breakerWindowSize, this._breakerMinimumCalls, this._openDuration, this._halfOpenProbes);
+                this._circuitBreakers.put(core, breaker);
+            }
+            if (breaker != null || this._maxRetries > 0) {
+                client = new ResilientSolrClient(client, breaker, this._maxRetries, this._retryBackoff, this._maxRetryBackoff, this._requestDeadline);
             }
-            long timeStart = System.currentTimeMillis();
+            return client;
+        });
+    }
 
-            QueryResponse qr = null;
+    private SolrClientRegistry getClientRegistry() throws Exception {
+        SolrClientRegistry registry = this._clientRegistry;
+        if (registry == null) {
+            throw new Exception("The Solr connection is not initialized, make sure the Thing is enabled and running");
+        }
+        return registry;
+    }
 
-            try {
-                qr = server.query(solrQuery);
-                if (_logger.isInfoEnabled()) {
-                    print(qr);
-                }
+    /**
+     * Returns the mapping plan of a DataShape, building it on first use and again whenever the DataShape changed.
+     */
+    protected RowMappingPlan getMappingPlan(DataShape ds) {
+        RowMappingPlan plan = this._mappingPlans.get(ds.getName());
+        if (plan == null || !plan.isValidFor(ds)) {
+            plan = RowMappingPlan.create(ds);
+            this._mappingPlans.put(ds.getName(), plan);
+        }
+        return plan;
+    }
 
-                SolrDocumentList docs = qr.getResults();
-                if (docs != null) {
-                    long numFound1 = qr.getResults().getNumFound();
-                    int numFound = (int) numFound1;
+    protected int getIntConfigurationSetting(String name, int defaultValue) {
+        return this.getIntConfigurationSetting(ConfigConstants.ConnectionInfo, name, defaultValue);
+    }
+
+    protected int getIntConfigurationSetting(String table, String name, int defaultValue) {
+        Object value = this.getConfigurationSetting(table, name);
+        return value instanceof Number ? ((Number) value).intValue() : defaultValue;
+    }
+
+    /**
+     * Records a finished request and returns its duration in milliseconds. The metrics properties are updated at
+     * most once per publishInterval, by the first request finishing after it elapsed.
+     */
+    protected long finishMetrics(ServiceMetrics.Request metrics) {
+        long duration = metrics.finish();
+        SlowQueryLog slowQueryLog = this._slowQueryLog;
+        if (slowQueryLog != null) {
+            slowQueryLog.log(metrics, duration);
+        }
+        this.publishMetrics(false);
+        return duration;
+    }
+
+    protected void publishMetrics(boolean force) {
+        long now = System.currentTimeMillis();
+        long last = this._lastMetricsPublish.get();
+        if (!force && (this._metricsPublishInterval <= 0 || now - last < this._metricsPublishInterval || !this._lastMetricsPublish.compareAndSet(last, now))) {
+            return;
+        }
+        if (force) {
+            this._lastMetricsPublish.set(now);
+        }
+
+        ServiceMetrics.Stats totals = this._metrics.getTotals();
+        try {
+            this.setPropertyValue("requestCount", new NumberPrimitive((Number) totals.requests.sum()));
+            this.setPropertyValue("errorCount", new NumberPrimitive((Number) totals.errors.sum()));
+            this.setPropertyValue("latencyP50", new NumberPrimitive((Number) totals.total.getPercentile(50)));
+            this.setPropertyValue("latencyP95", new NumberPrimitive((Number) totals.total.getPercentile(95)));
+            this.setPropertyValue("latencyP99", new NumberPrimitive((Number) totals.total.getPercentile(99)));
+            this.setPropertyValue("latencyMax", new NumberPrimitive((Number) totals.total.getMax()));
+            this.setPropertyValue("rowsConverted", new NumberPrimitive((Number) totals.rows.sum()));
+            this.setPropertyValue("bytesReceived", new NumberPrimitive((Number) totals.bytes.sum()));
+            long inFlight = 0;
+            long rejected = 0;
+            for (ConcurrencyLimiter limiter : this._concurrencyLimiters.values()) {
+                inFlight += limiter.getInFlight();
+                rejected += limiter.getRejected();
+            }
+            this.setPropertyValue("inFlightRequests", new NumberPrimitive((Number) inFlight));
+            this.setPropertyValue("rejectedRequests", new NumberPrimitive((Number) rejected));
+            long openCircuits = 0;
+            for (CircuitBreaker breaker : this._circuitBreakers.values()) {
+                openCircuits += CircuitBreaker.Closed.equals(breaker.getState()) ? 0 : 1;
+            }
+            this.setPropertyValue("openCircuits", new NumberPrimitive((Number) openCircuits));
+        } catch (Exception exceptionError) {
+            _logger.warn("Could not update the metrics properties: " + exceptionError.getMessage());
+        }
+    }
+
+    protected InfoTable getCachedResult(String cacheKey) {
+        QueryResultCache queryCache = this._queryCache;
+        return queryCache != null ? queryCache.get(cacheKey) : null;
+    }
+
+    /**
+     * Returns the write generation of a core, to be taken before running a query whose result is cached.
+     */
+    protected long getCacheGeneration(String coreName) {
+        QueryResultCache queryCache = this._queryCache;
+        return queryCache != null ? queryCache.getGeneration(coreName) : 0;
+    }
+
+    protected void cacheResult(String cacheKey, String coreName, InfoTable result, long generation) {
+        QueryResultCache queryCache = this._queryCache;
+        if (queryCache != null) {
+            queryCache.put(cacheKey, coreName, result, generation);
+        }
+    }
+
+    protected void invalidateCachedResults(String coreName) {
+        this.invalidateCachedResults(coreName, 0);
+    }
+
+    /**
+     * @param settleDelay time (milliseconds) until the written documents are searchable, during which no query result,
+     *                    count or suggestion of the core is cached
+     */
+    protected void invalidateCachedResults(String coreName, long settleDelay) {
+        QueryResultCache queryCache = this._queryCache;
+        if (queryCache != null) {
+            queryCache.invalidate(coreName, settleDelay);
+        }
+        CountCache countCache = this._countCache;
+        if (countCache != null) {
+            countCache.invalidate(coreName, settleDelay);
+        }
+        SuggestionCache suggestionCache = this._suggestionCache;
+        if (suggestionCache != null) {
+            suggestionCache.invalidate(coreName, settleDelay);
+        }
+    }
 
-                    ValueCollection values = new ValueCollection();
-                    Iterator iteratorNum = it.getDataShape().getFields().values().iterator();
+    /**
+     * Splits a filter whose top level clauses are all required, either joined by AND or prefixed with +, into one
+     * filter per clause, so that Solr caches every clause on its own and reuses it across filters sharing that clause.
+     * Any other filter (a top level OR or NOT, a clause joined with the default operator, local parameters) is
+     * returned as a single filter, as splitting it would change the documents it matches.
+     */
+    protected static List<String> splitFilterQuery(String filterQuery) {
+        List<String> clauses = new ArrayList<>();
+        if (filterQuery == null || filterQuery.trim().length() == 0) {
+            return clauses;
+        }
+        String filter = filterQuery.trim();
+        List<String> terms = splitTopLevelTerms(filter);
+        if (filter.startsWith("{!") || terms.size() < 2) {
+            clauses.add(filter);
+            return clauses;
+        }
 
-                    FieldDefinition fieldDefinition = (FieldDefinition) iteratorNum.next();
-                    values.put(fieldDefinition.getName(), BaseTypes.ConvertToPrimitive(numFound, fieldDefinition.getBaseType()));
+        boolean[] required = new boolean[terms.size()];
+        for (int i = 0; i < terms.size(); i++) {
+            String term = terms.get(i);
+            if (term.equals("OR") || term.equals("||") || term.equals("NOT")) {
+                clauses.add(filter);
+                return clauses;
+            }
+            if (term.equals("AND") || term.equals("&&")) {
+                if (i == 0 || i == terms.size() - 1 || isAndOperator(terms.get(i + 1)) || isAndOperator(terms.get(i - 1))) {
+                    clauses.add(filter);
+                    return clauses;
+                }
+                required[i - 1] = true;
+                required[i + 1] = true;
+            }
+        }
+        for (int i = 0; i < terms.size(); i++) {
+            String term = terms.get(i);
+            if (isAndOperator(term)) {
+                continue;
+            }
+            if (!required[i] && !term.startsWith("+")) {
+                // a clause joined with the default operator may be optional
+                clauses.clear();
+                clauses.add(filter);
+                return clauses;
+            }
+            clauses.add(term);
+        }
+        return clauses;
+    }
 
-                    it.addRow(values);
+    /**
+     * Splits a query on the whitespace outside of quotes and brackets, keeping a field name with its value.
+     */
+    private static List<String> splitTopLevelTerms(String query) {
+        List<String> terms = new ArrayList<>();
+        int depth = 0;
+        boolean quoted = false;
+        int termStart = 0;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '"') {
+                quoted = !quoted;
+            } else if (!quoted && (c == '(' || c == '[' || c == '{')) {
+                depth++;
+            } else if (!quoted && (c == ')' || c == ']' || c == '}')) {
+                depth--;
+            } else if (!quoted && depth == 0 && Character.isWhitespace(c)) {
+                String term = query.substring(termStart, i).trim();
+                if (term.length() > 0 && !term.endsWith(":")) {
+                    terms.add(term);
+                    termStart = i + 1;
                 }
-            } catch (Exception exceptionError) {
-                _logger.error("Error Executing Query: " + exceptionError.getMessage());
             }
+        }
+        String term = query.substring(termStart).trim();
+        if (term.length() > 0) {
+            terms.add(term);
+        }
+        return terms;
+    }
+
+    private static boolean isAndOperator(String term) {
+        return term.equals("AND") || term.equals("&&");
+    }
+
+    protected static List<String> splitList(String value) {
+        List<String> items = new ArrayList<>();
+        if (value != null) {
+            for (String item : value.split(",")) {
+                if (item.trim().length() > 0) {
+                    items.add(item.trim());
+                }
+            }
+        }
+        return items;
+    }
+
+    @ThingworxServiceDefinition(
+            name = "GetNumberOfResults",
+            description = "Returns the number of results for the specified query as a Number:Double type"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Result",
+            baseType = "NUMBER"
+    )
+    public Double GetNumberOfResults(@ThingworxServiceParameter(name = "coreName", description = "Core/index name", baseType = "STRING") String coreName,
+                                     @ThingworxServiceParameter(name = "query", description = "Solr query string", baseType = "STRING") String query,
+                                     @ThingworxServiceParameter(name = "sortExpression", description = "Ignored, a count does not depend on the sort order", baseType = "QUERY") JSONObject sortExpression,
+                                     @ThingworxServiceParameter(name = "filterQuery", description = "fq parameter from Solr API", baseType = "STRING") String filterQuery,
+                                     @ThingworxServiceParameter(name = "dataShape", description = "Ignored, a count does not return any document", baseType = "DATASHAPENAME") String dataShape)
+            throws Exception {
+
+        String cacheKey = QueryResultCache.key("GetNumberOfResults", coreName, query, filterQuery);
+        CountCache countCache = this._countCache;
+        if (countCache != null) {
+            Long count = countCache.get(cacheKey);
+            if (count != null) {
+                return count.doubleValue();
+            }
+        }
+        long generation = countCache != null ? countCache.getGeneration(coreName) : 0;
+
+        // a count needs no documents, fields or sort; every clause of the filter is cached on its own in the filterCache
+        SolrClient server = this.getSolrClient(coreName);
+        SolrQuery solrQuery = new SolrQuery();
+        solrQuery.setQuery(query);
+        solrQuery.setRows(0);
+        for (String filterClause : splitFilterQuery(filterQuery)) {
+            solrQuery.addFilterQuery(filterClause);
+        }
 
-            _logger.info("query took " + (System.currentTimeMillis() - timeStart) + " ms");
-            return new Double(qr.getResults().getNumFound());
+        ServiceMetrics.Request metrics = this._metrics.start("GetNumberOfResults", coreName);
+        long numFound;
+        try {
+            metrics.query(solrQuery);
+            QueryResponse qr = server.query(solrQuery);
+            metrics.response(qr);
+            numFound = qr.getResults().getNumFound();
+        } catch (Exception exceptionError) {
+            metrics.failed();
+            this.finishMetrics(metrics);
+            _logger.error("Error Executing Query: " + exceptionError.getMessage());
+            throw new Exception("Error Executing Query: " + exceptionError.getMessage(), exceptionError);
         }
+        if (countCache != null) {
+            countCache.put(cacheKey, coreName, numFound, generation);
+        }
+
+        _logger.debug("query took " + this.finishMetrics(metrics) + " ms");
+        return (double) numFound;
     }
 
     /*For the standard request handler, "boost" the clause on the title field: q=title:superman^2 subject:superman
@@ -298,30 +1239,24 @@ public class SolrThing extends Thing {
                                          @ThingworxServiceParameter(name = "enableMoreLikeThis", description = "enables the use of similarity functions via Solr API", baseType = "BOOLEAN") Boolean enableMoreLikeThis,
                                          @ThingworxServiceParameter(name = "queryFields", description = "qf: specify boosts on fields in parameters", baseType = "STRING") String queryFields)
             throws Exception {
-        Double maxItems = new Double("500");
+        Double maxItems = Double.valueOf(500.0D);
         DataShape ds = (DataShape) EntityUtilities.findEntity(dataShape, ThingworxRelationshipTypes.DataShape);
 
         if (ds == null) {
             throw new Exception("Could not execute query because the Datashape does not exist, or a Datashape was not specified [" + dataShape + "]");
         } else {
             InfoTable it = InfoTableInstanceFactory.createInfoTableFromDataShape(ds.getDataShape());
-            double timeout = 60000.0D;
-            if (this._timeout > 0) {
-                timeout = (double) this._timeout;
-            }
-            boolean ignoreSSLErrors = false;
-            boolean useNTLM = false;
-            boolean useProxy = false;
-            CloseableHttpClient client = HttpUtilities.createHttpClient(this._username, this._password, ignoreSSLErrors, timeout, useNTLM, "", "", useProxy, "", -1, "");
-            SolrClient server = new HttpSolrClient.Builder(this.buildBaseURL(coreName).toString()).withHttpClient(client).build();
+            RowMappingPlan plan = this.getMappingPlan(ds);
+            SolrClient server = this.getSolrClient(coreName);
             SolrQuery solrQuery = new SolrQuery();
             solrQuery.setQuery(query);
+            solrQuery.setFields(plan.getFieldNames());
             solrQuery.setStart(0);
             solrQuery.setRows(maxItems.intValue());
             if (sortExpression != null) {
                 Query sortQuery = new Query(sortExpression);
                 SortCollection sorters = (SortCollection) sortQuery.getSorters();
-                Iterator sortIterator = sorters.getSorters().iterator();
+                Iterator<?> sortIterator = sorters.getSorters().iterator();
 
                 while (sortIterator.hasNext()) {
                     ISort sorter = (ISort) sortIterator.next();
@@ -336,7 +1271,7 @@ public class SolrThing extends Thing {
                 solrQuery.addFilterQuery(String.valueOf(filterQuery));
             }
 
-            long timeStart = System.currentTimeMillis();
+            ServiceMetrics.Request metrics = this._metrics.start("ExecuteBoostedQuery", coreName);
             if (enableMoreLikeThis == true) {
                 solrQuery.setMoreLikeThis(true);
                 solrQuery.setIncludeScore(true);
@@ -345,34 +1280,20 @@ public class SolrThing extends Thing {
             solrQuery.addMoreLikeThisField(queryFields); //doc These fields must also be added using addMoreLikeThisField(String).
 
             try {
-                QueryResponse qr = server.query(solrQuery);
-                if (_logger.isInfoEnabled()) {
-                    print(qr);
-                }
-
-                SolrDocumentList docs = qr.getResults();
-                if (docs != null) {
-                    for (int i = 0; i < docs.size() && (double) i <= maxItems; ++i) {
-                        SolrDocument doc = docs.get(i);
-                        ValueCollection values = new ValueCollection();
-                        Iterator fieldDefinitionIterator = it.getDataShape().getFields().values().iterator();
-
-                        while (fieldDefinitionIterator.hasNext()) {
-                            FieldDefinition fieldDefinition = (FieldDefinition) fieldDefinitionIterator.next();
-                            Object value = doc.get(fieldDefinition.getName());
-                            if (value != null) {
-                                values.put(fieldDefinition.getName(), BaseTypes.ConvertToPrimitive(value, fieldDefinition.getBaseType()));
-                            }
-                        }
-
-                        it.addRow(values);
-                    }
-                }
+                InfoTableStreamingCallback callback = new InfoTableStreamingCallback(it, plan, maxItems.longValue());
+                metrics.query(solrQuery);
+                QueryResponse qr = server.queryAndStreamResponse(solrQuery, callback);
+                metrics.response(qr);
+                metrics.conversion(callback.getConversionNanos());
+                metrics.rows(it.getRowCount());
             } catch (Exception exceptionErrorQ) {
+                metrics.failed();
+                this.finishMetrics(metrics);
                 _logger.error("Error Executing Query: " + exceptionErrorQ.getMessage());
+                throw new Exception("Error Executing Query: " + exceptionErrorQ.getMessage(), exceptionErrorQ);
             }
 
-            _logger.info("query took " + (System.currentTimeMillis() - timeStart) + " ms");
+            _logger.debug("query took " + this.finishMetrics(metrics) + " ms");
             return it;
         }
     }
@@ -394,31 +1315,32 @@ public class SolrThing extends Thing {
                                   @ThingworxServiceParameter(name = "dataShape", description = "Data shape", baseType = "DATASHAPENAME") String dataShape,
                                   @ThingworxServiceParameter(name = "maxItems", description = "Max items to return", baseType = "NUMBER") Double maxItems) throws Exception {
         if (maxItems == null) {
-            maxItems = new Double(500.0D);
+            maxItems = Double.valueOf(500.0D);
         }
 
         DataShape ds = (DataShape) EntityUtilities.findEntity(dataShape, ThingworxRelationshipTypes.DataShape);
         if (ds == null) {
             throw new Exception("Could not execute query because the Datashape does not exist, or a Datashape was not specified [" + dataShape + "]");
         } else {
+            String cacheKey = QueryResultCache.key("ExecuteQuery", coreName, query, sortExpression, filterExpression, dataShape, maxItems);
+            long cacheGeneration = this.getCacheGeneration(coreName);
+            InfoTable cached = this.getCachedResult(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
+
             InfoTable it = InfoTableInstanceFactory.createInfoTableFromDataShape(ds.getDataShape());
-            double timeout = 60000.0D;
-            if (this._timeout > 0) {
-                timeout = (double) this._timeout;
-            }
-            boolean ignoreSSLErrors = false;
-            boolean useNTLM = false;
-            boolean useProxy = false;
-            CloseableHttpClient client = HttpUtilities.createHttpClient(this._username, this._password, ignoreSSLErrors, timeout, useNTLM, "", "", useProxy, "", -1, "");
-            SolrClient server = new HttpSolrClient.Builder(this.buildBaseURL(coreName).toString()).withHttpClient(client).build();
+            RowMappingPlan plan = this.getMappingPlan(ds);
+            SolrClient server = this.getSolrClient(coreName);
             SolrQuery solrQuery = new SolrQuery();
             solrQuery.setQuery(query);
+            solrQuery.setFields(plan.getFieldNames());
             solrQuery.setStart(0);
             solrQuery.setRows(maxItems.intValue());
             if (sortExpression != null) {
                 Query sortQuery = new Query(sortExpression);
                 SortCollection sorters = (SortCollection) sortQuery.getSorters();
-                Iterator sortIterator = sorters.getSorters().iterator();
+                Iterator<?> sortIterator = sorters.getSorters().iterator();
 
                 while (sortIterator.hasNext()) {
                     ISort sorter = (ISort) sortIterator.next();
@@ -429,41 +1351,27 @@ public class SolrThing extends Thing {
                     }
                 }
             }
-            long timeStart = System.currentTimeMillis();
-
+            ServiceMetrics.Request metrics = this._metrics.start("ExecuteQuery", coreName);
             try {
-                QueryResponse qr = server.query(solrQuery);
-                if (_logger.isInfoEnabled()) {
-                    print(qr);
-                }
-
-                SolrDocumentList docs = qr.getResults();
-                if (docs != null) {
-                    for (int i = 0; i < docs.size() && (double) i <= maxItems; ++i) {
-                        SolrDocument doc = docs.get(i);
-                        ValueCollection values = new ValueCollection();
-                        Iterator fieldDefinitionIterator = it.getDataShape().getFields().values().iterator();
-
-                        while (fieldDefinitionIterator.hasNext()) {
-                            FieldDefinition fieldDefinition = (FieldDefinition) fieldDefinitionIterator.next();
-                            Object value = doc.get(fieldDefinition.getName());
-                            if (value != null) {
-                                values.put(fieldDefinition.getName(), BaseTypes.ConvertToPrimitive(value, fieldDefinition.getBaseType()));
-                            }
-                        }
-
-                        it.addRow(values);
-                    }
-                }
+                InfoTableStreamingCallback callback = new InfoTableStreamingCallback(it, plan, maxItems.longValue());
+                metrics.query(solrQuery);
+                QueryResponse qr = server.queryAndStreamResponse(solrQuery, callback);
+                metrics.response(qr);
+                metrics.conversion(callback.getConversionNanos());
+                metrics.rows(it.getRowCount());
             } catch (Exception exceptionErrorQ) {
+                metrics.failed();
+                this.finishMetrics(metrics);
                 _logger.error("Error Executing Query: " + exceptionErrorQ.getMessage());
+                throw new Exception("Error Executing Query: " + exceptionErrorQ.getMessage(), exceptionErrorQ);
             }
 
             if (filterExpression != null) {
                 it = GenericQuery.query(it, filterExpression);
             }
+            this.cacheResult(cacheKey, coreName, it, cacheGeneration);
 
-            _logger.info("query took " + (System.currentTimeMillis() - timeStart) + " ms");
+            _logger.debug("query took " + this.finishMetrics(metrics) + " ms");
             return it;
         }
     }
@@ -490,18 +1398,19 @@ public class SolrThing extends Thing {
         if (ds == null) {
             throw new Exception("Could not execute query because the Datashape does not exist, or a Datashape was not specified [" + dataShape + "]");
         } else {
+            String cacheKey = QueryResultCache.key("ExecutePagedQuery", coreName, query, sortExpression, filterExpression, dataShape, startAtIndex, stopAtIndex);
+            long cacheGeneration = this.getCacheGeneration(coreName);
+            InfoTable cached = this.getCachedResult(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
+
             InfoTable it = InfoTableInstanceFactory.createInfoTableFromDataShape(ds.getDataShape());
-            double timeout = 60000.0D;
-            if (this._timeout > 0) {
-                timeout = (double) this._timeout;
-            }
-            boolean ignoreSSLErrors = false;
-            boolean useNTLM = false;
-            boolean useProxy = false;
-            CloseableHttpClient client = HttpUtilities.createHttpClient(this._username, this._password, ignoreSSLErrors, timeout, useNTLM, "", "", useProxy, "", -1, "");
-            SolrClient server = new HttpSolrClient.Builder(this.buildBaseURL(coreName).toString()).withHttpClient(client).build();
+            RowMappingPlan plan = this.getMappingPlan(ds);
+            SolrClient server = this.getSolrClient(coreName);
             SolrQuery solrQuery = new SolrQuery();
             solrQuery.setQuery(query);
+            solrQuery.setFields(plan.getFieldNames());
 
             if (filterExpression != null) {
                 solrQuery.addFilterQuery(String.valueOf(filterExpression));
@@ -513,7 +1422,7 @@ public class SolrThing extends Thing {
             if (sortExpression != null) {
                 Query sortQuery = new Query(sortExpression);
                 SortCollection sorters = (SortCollection) sortQuery.getSorters();
-                Iterator sortIterator = sorters.getSorters().iterator();
+                Iterator<?> sortIterator = sorters.getSorters().iterator();
 
                 while (sortIterator.hasNext()) {
                     ISort sorter = (ISort) sortIterator.next();
@@ -524,40 +1433,249 @@ public class SolrThing extends Thing {
                     }
                 }
             }
-            long timeStart = System.currentTimeMillis();
+            ServiceMetrics.Request metrics = this._metrics.start("ExecutePagedQuery", coreName);
 
             try {
-                QueryResponse qr = server.query(solrQuery);
-                if (_logger.isInfoEnabled()) {
-                    print(qr);
-                }
+                InfoTableStreamingCallback callback = new InfoTableStreamingCallback(it, plan, Long.MAX_VALUE);
+                metrics.query(solrQuery);
+                QueryResponse qr = server.queryAndStreamResponse(solrQuery, callback);
+                metrics.response(qr);
+                metrics.conversion(callback.getConversionNanos());
+                metrics.rows(it.getRowCount());
+                this.cacheResult(cacheKey, coreName, it, cacheGeneration);
+            } catch (Exception exceptionError) {
+                metrics.failed();
+                this.finishMetrics(metrics);
+                _logger.error("Error Executing Query: " + exceptionError.getMessage());
+                throw new Exception("Error Executing Query: " + exceptionError.getMessage(), exceptionError);
+            }
 
-                SolrDocumentList docs = qr.getResults();
-                if (docs != null) {
-                    for (int i = 0; i < docs.size(); ++i) {
-                        SolrDocument doc = docs.get(i);
-                        ValueCollection values = new ValueCollection();
-                        Iterator fieldDefinitionIterator = it.getDataShape().getFields().values().iterator();
-
-                        while (fieldDefinitionIterator.hasNext()) {
-                            FieldDefinition fieldDefinition = (FieldDefinition) fieldDefinitionIterator.next();
-                            Object value = doc.get(fieldDefinition.getName());
-                            if (value != null) {
-                                values.put(fieldDefinition.getName(), BaseTypes.ConvertToPrimitive(value, fieldDefinition.getBaseType()));
-                            }
-                        }
 
-                        it.addRow(values);
+            _logger.debug("query took " + this.finishMetrics(metrics) + " ms");
+            return it;
+        }
+    }
+
+    /*
+     * Deep paging with cursorMark: pass "*" (or nothing) for the first page, then the nextCursorMark of the previous
+     * page. Unlike startAtIndex, the cost of a page does not grow with its depth. The uniqueKey of the core is added
+     * to the sort clauses as the tiebreaker required by Solr.
+     */
+
+    @ThingworxServiceDefinition(
+            name = "ExecuteCursorQuery",
+            description = "Execute an Solr query one page at a time using cursorMark deep paging, returns the page rows, the nextCursorMark and whether more pages exist"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Result with the fields rows (INFOTABLE), nextCursorMark (STRING), hasMore (BOOLEAN) and numFound (NUMBER)",
+            baseType = "INFOTABLE"
+    )
+    public InfoTable ExecuteCursorQuery(@ThingworxServiceParameter(name = "coreName", description = "Core/index name", baseType = "STRING") String coreName,
+                                        @ThingworxServiceParameter(name = "query", description = "Solr query string", baseType = "STRING") String query,
+                                        @ThingworxServiceParameter(name = "sortExpression", description = "Sort expression", baseType = "QUERY") JSONObject sortExpression,
+                                        @ThingworxServiceParameter(name = "filterExpression", description = "Query-based filter expression", baseType = "STRING") String filterExpression,
+                                        @ThingworxServiceParameter(name = "dataShape", description = "Data shape", baseType = "DATASHAPENAME") String dataShape,
+                                        @ThingworxServiceParameter(name = "cursorMark", description = "nextCursorMark of the previous page, * or empty for the first page", baseType = "STRING") String cursorMark,
+                                        @ThingworxServiceParameter(name = "rows", description = "Page size", baseType = "NUMBER", aspects = {"defaultValue:100"}) Double rows)
+            throws Exception {
+
+        DataShape ds = (DataShape) EntityUtilities.findEntity(dataShape, ThingworxRelationshipTypes.DataShape);
+        if (ds == null) {
+            throw new Exception("Could not execute query because the Datashape does not exist, or a Datashape was not specified [" + dataShape + "]");
+        }
+
+        InfoTable it = InfoTableInstanceFactory.createInfoTableFromDataShape(ds.getDataShape());
+        RowMappingPlan plan = this.getMappingPlan(ds);
+        SolrClient server = this.getSolrClient(coreName);
+        SolrQuery solrQuery = new SolrQuery();
+        solrQuery.setQuery(query);
+        solrQuery.setFields(plan.getFieldNames());
+        if (filterExpression != null) {
+            solrQuery.addFilterQuery(filterExpression);
+        }
+        solrQuery.setRows(rows != null ? rows.intValue() : 100);
+
+        String uniqueKey = this.getUniqueKey(coreName);
+        boolean hasUniqueKeySort = false;
+        for (SolrQuery.SortClause sortClause : buildSortClauses(sortExpression)) {
+            solrQuery.addSort(sortClause);
+            hasUniqueKeySort |= sortClause.getItem().equals(uniqueKey);
+        }
+        if (!hasUniqueKeySort) {
+            solrQuery.addSort(SolrQuery.SortClause.asc(uniqueKey));
+        }
+
+        String currentCursorMark = cursorMark != null && cursorMark.length() > 0 ? cursorMark : CursorMarkParams.CURSOR_MARK_START;
+        solrQuery.set(CursorMarkParams.CURSOR_MARK_PARAM, currentCursorMark);
+
+        ServiceMetrics.Request metrics = this._metrics.start("ExecuteCursorQuery", coreName);
+        InfoTableStreamingCallback callback = new InfoTableStreamingCallback(it, plan, Long.MAX_VALUE);
+        QueryResponse qr;
+        try {
+            metrics.query(solrQuery);
+            qr = server.queryAndStreamResponse(solrQuery, callback);
+            metrics.response(qr);
+            metrics.conversion(callback.getConversionNanos());
+            metrics.rows(it.getRowCount());
+        } catch (Exception exceptionError) {
+            metrics.failed();
+            this.finishMetrics(metrics);
+            _logger.error("Error Executing Query: " + exceptionError.getMessage());
+            throw new Exception("Error Executing Query: " + exceptionError.getMessage(), exceptionError);
+        }
+        long numFound = callback.getNumFound();
+        String nextCursorMark = qr.getNextCursorMark();
+
+        InfoTable result = new InfoTable();
+        result.addField(new FieldDefinition("rows", BaseTypes.INFOTABLE));
+        result.addField(new FieldDefinition("nextCursorMark", BaseTypes.STRING));
+        result.addField(new FieldDefinition("hasMore", BaseTypes.BOOLEAN));
+        result.addField(new FieldDefinition("numFound", BaseTypes.NUMBER));
+        ValueCollection values = new ValueCollection();
+        values.put("rows", new InfoTablePrimitive(it));
+        values.put("nextCursorMark", new StringPrimitive(nextCursorMark));
+        values.put("hasMore", new BooleanPrimitive(nextCursorMark != null && !nextCursorMark.equals(currentCursorMark)));
+        values.put("numFound", new NumberPrimitive((Number) numFound));
+        result.addRow(values);
+
+        _logger.debug("query took " + this.finishMetrics(metrics) + " ms");
+        return result;
+    }
+
+    /*
+     * Full result exports through the /export handler: every exported field must have docValues. Tuples are read one
+     * at a time from the response stream, so the result set is never held in memory as a whole. The uniqueKey is used
+     * as sort when no sort expression is given, since /export requires one.
+     */
+
+    @ThingworxServiceDefinition(
+            name = "ExportQuery",
+            description = "Export every document matching a query to a file of a FileRepository, as CSV or JSON lines, and return the number of exported documents"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Result",
+            baseType = "NUMBER"
+    )
+    public Double ExportQuery(@ThingworxServiceParameter(name = "coreName", description = "Core/index name", baseType = "STRING") String coreName,
+                              @ThingworxServiceParameter(name = "query", description = "Solr query string", baseType = "STRING") String query,
+                              @ThingworxServiceParameter(name = "sortExpression", description = "Sort expression", baseType = "QUERY") JSONObject sortExpression,
+                              @ThingworxServiceParameter(name = "filterQuery", description = "fq parameter from Solr API", baseType = "STRING") String filterQuery,
+                              @ThingworxServiceParameter(name = "fields", description = "Comma separated list of the exported fields (must have docValues)", baseType = "STRING") String fields,
+                              @ThingworxServiceParameter(name = "fileRepository", description = "File repository receiving the export", baseType = "THINGNAME", aspects = {"thingTemplate:FileRepository"}) String fileRepository,
+                              @ThingworxServiceParameter(name = "path", description = "Path of the export file in the repository", baseType = "STRING") String path,
+                              @ThingworxServiceParameter(name = "format", description = "CSV or JSON (one JSON object per line)", baseType = "STRING", aspects = {"defaultValue:CSV"}) String format)
+            throws Exception {
+
+        List<String> fieldNames = splitList(fields);
+        if (fieldNames.isEmpty()) {
+            throw new Exception("Could not export because no fields were specified");
+        }
+        Object repositoryEntity = fileRepository != null && fileRepository.length() > 0 ? EntityUtilities.findEntity(fileRepository, ThingworxRelationshipTypes.Thing) : null;
+        if (repositoryEntity == null) {
+            throw new Exception("Could not export because the FileRepository does not exist [" + fileRepository + "]");
+        }
+        if (!(repositoryEntity instanceof FileRepositoryThing)) {
+            throw new Exception("Could not export because the Thing is not a FileRepository [" + fileRepository + "]");
+        }
+        FileRepositoryThing repository = (FileRepositoryThing) repositoryEntity;
+        boolean json = "JSON".equalsIgnoreCase(format);
+
+        ServiceMetrics.Request metrics = this._metrics.start("ExportQuery", coreName);
+        long count = 0;
+        // the catch also covers creating and opening the stream, and a failing close is suppressed by the original error
+        try (TupleStream stream = this.createExportStream(coreName, query, sortExpression, filterQuery, fieldNames);
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(repository.openFileForWrite(path, FileRepositoryThing.FileMode.WRITE), StandardCharsets.UTF_8))) {
+            stream.open();
+            if (!json) {
+                writer.write(String.join(",", fieldNames));
+                writer.newLine();
+            }
+            for (Tuple tuple = readTuple(stream); !tuple.EOF; tuple = readTuple(stream)) {
+                if (json) {
+                    JSONObject line = new JSONObject();
+                    for (String fieldName : fieldNames) {
+                        Object value = tuple.get(fieldName);
+                        if (value != null) {
+                            line.put(fieldName, value instanceof Collection ? new JSONArray(new ArrayList<Object>((Collection<?>) value)) : value);
+                        }
+                    }
+                    writer.write(line.toString());
+                } else {
+                    for (int i = 0; i < fieldNames.size(); i++) {
+                        if (i > 0) {
+                            writer.write(',');
+                        }
+                        writer.write(toCsvValue(tuple.get(fieldNames.get(i))));
                     }
                 }
-            } catch (Exception exceptionError) {
-                _logger.error("Error Executing Query: " + exceptionError.getMessage());
+                writer.newLine();
+                count++;
             }
+        } catch (Exception exceptionError) {
+            metrics.failed();
+            this.finishMetrics(metrics);
+            throw exceptionError;
+        }
 
+        metrics.rows(count);
+        _logger.info("export of " + count + " documents took " + this.finishMetrics(metrics) + " ms");
+        return (double) count;
+    }
 
-            _logger.info("query took " + (System.currentTimeMillis() - timeStart) + " ms");
-            return it;
+    @ThingworxServiceDefinition(
+            name = "ExportQueryToInfoTable",
+            description = "Export the documents matching a query through the /export handler into an Infotable, up to maxRows rows"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Result",
+            baseType = "INFOTABLE"
+    )
+    public InfoTable ExportQueryToInfoTable(@ThingworxServiceParameter(name = "coreName", description = "Core/index name", baseType = "STRING") String coreName,
+                                            @ThingworxServiceParameter(name = "query", description = "Solr query string", baseType = "STRING") String query,
+                                            @ThingworxServiceParameter(name = "sortExpression", description = "Sort expression", baseType = "QUERY") JSONObject sortExpression,
+                                            @ThingworxServiceParameter(name = "filterQuery", description = "fq parameter from Solr API", baseType = "STRING") String filterQuery,
+                                            @ThingworxServiceParameter(name = "dataShape", description = "Data shape (its fields must have docValues)", baseType = "DATASHAPENAME") String dataShape,
+                                            @ThingworxServiceParameter(name = "maxRows", description = "Max rows to return", baseType = "NUMBER", aspects = {"defaultValue:100000"}) Double maxRows)
+            throws Exception {
+
+        DataShape ds = (DataShape) EntityUtilities.findEntity(dataShape, ThingworxRelationshipTypes.DataShape);
+        if (ds == null) {
+            throw new Exception("Could not execute query because the Datashape does not exist, or a Datashape was not specified [" + dataShape + "]");
+        }
+
+        InfoTable it = InfoTableInstanceFactory.createInfoTableFromDataShape(ds.getDataShape());
+        List<FieldDefinition> fieldDefinitions = new ArrayList<>(it.getDataShape().getFields().values());
+        List<String> fieldNames = new ArrayList<>();
+        for (FieldDefinition fieldDefinition : fieldDefinitions) {
+            fieldNames.add(fieldDefinition.getName());
+        }
+        long limit = maxRows != null ? maxRows.longValue() : 100000L;
+
+        ServiceMetrics.Request metrics = this._metrics.start("ExportQueryToInfoTable", coreName);
+        try (TupleStream stream = this.createExportStream(coreName, query, sortExpression, filterQuery, fieldNames)) {
+            stream.open();
+            for (Tuple tuple = readTuple(stream); !tuple.EOF && it.getRowCount() < limit; tuple = readTuple(stream)) {
+                ValueCollection values = new ValueCollection();
+                for (FieldDefinition fieldDefinition : fieldDefinitions) {
+                    Object value = tuple.get(fieldDefinition.getName());
+                    if (value != null) {
+                        values.put(fieldDefinition.getName(), BaseTypes.ConvertToPrimitive(value, fieldDefinition.getBaseType()));
+                    }
+                }
+                it.addRow(values);
+            }
+        } catch (Exception exceptionError) {
+            metrics.failed();
+            this.finishMetrics(metrics);
+            throw exceptionError;
         }
+
+        metrics.rows(it.getRowCount());
+        _logger.debug("export took " + this.finishMetrics(metrics) + " ms");
+        return it;
     }
 
     @ThingworxServiceDefinition(
@@ -573,7 +1691,8 @@ public class SolrThing extends Thing {
     /*
      *This is the same as running a paged query (P) with the additional feature of returning the highlighted (H)
      * search term with html tags. This makes it so you can display the infotable contents within an html text area
-     * widget.
+     * widget. Only the given fields are highlighted, by default the STRING fields of the data shape, with the
+     * highlighter, snippet size and tags of the Highlighting configuration.
      */
 
     public InfoTable ExecutePHQuery(@ThingworxServiceParameter(name = "coreName", description = "Core/index name", baseType = "STRING") String coreName,
@@ -582,7 +1701,8 @@ public class SolrThing extends Thing {
                                     @ThingworxServiceParameter(name = "filterExpression", description = "Query-based filter expression", baseType = "STRING") String filterExpression,
                                     @ThingworxServiceParameter(name = "dataShape", description = "Data shape", baseType = "DATASHAPENAME") String dataShape,
                                     @ThingworxServiceParameter(name = "startAtIndex", description = "Lower Limit", baseType = "NUMBER") Double startAtIndex,
-                                    @ThingworxServiceParameter(name = "stopAtIndex", description = "Upper Limit", baseType = "NUMBER") Double stopAtIndex)
+                                    @ThingworxServiceParameter(name = "stopAtIndex", description = "Upper Limit", baseType = "NUMBER") Double stopAtIndex,
+                                    @ThingworxServiceParameter(name = "highlightFields", description = "Comma separated list of the fields to highlight, the configured ones if empty", baseType = "STRING") String highlightFields)
             throws Exception {
 
         DataShape ds = (DataShape) EntityUtilities.findEntity(dataShape, ThingworxRelationshipTypes.DataShape);
@@ -590,37 +1710,31 @@ public class SolrThing extends Thing {
             throw new Exception("Could not execute query because the Datashape does not exist, or a Datashape was not specified [" + dataShape + "]");
         } else {
             InfoTable it = InfoTableInstanceFactory.createInfoTableFromDataShape(ds.getDataShape());
-            double timeout = 60000.0D;
-            if (this._timeout > 0) {
-                timeout = (double) this._timeout;
-            }
-            boolean ignoreSSLErrors = false;
-            boolean useNTLM = false;
-            boolean useProxy = false;
-            CloseableHttpClient client = HttpUtilities.createHttpClient(this._username, this._password, ignoreSSLErrors, timeout, useNTLM, "", "", useProxy, "", -1, "");
-            SolrClient server = new HttpSolrClient.Builder(this.buildBaseURL(coreName).toString()).withHttpClient(client).build();
+            RowMappingPlan plan = this.getMappingPlan(ds);
+            SolrClient server = this.getSolrClient(coreName);
 
             SolrQuery solrQuery = new SolrQuery();
             solrQuery.setQuery(query);
+            // the uniqueKey is needed to find the highlighting of each document
+            String uniqueKey = this.getUniqueKey(coreName);
+            solrQuery.setFields(plan.getFieldNames());
+            solrQuery.addField(uniqueKey);
 
             //set solr highlighter parameters
-            solrQuery.addHighlightField("*");
-            solrQuery.setHighlight(true);
-            solrQuery.setHighlightFragsize(0);
-            solrQuery.setHighlightSimplePre("<span style=\"background-color: #FFFF00\">");
-            solrQuery.setHighlightSimplePost("</span>");
+            this.setHighlighting(solrQuery, highlightFields, plan);
 
             if (filterExpression != null) {
                 solrQuery.addFilterQuery(String.valueOf(filterExpression));
             }
 
             solrQuery.setStart(Integer.valueOf(startAtIndex.intValue()));
-            solrQuery.setRows(Integer.valueOf(stopAtIndex.intValue()) - Integer.valueOf(startAtIndex.intValue()));
+            int rows = stopAtIndex.intValue() - startAtIndex.intValue();
+            solrQuery.setRows(rows);
 
             if (sortExpression != null) {
                 Query sortQuery = new Query(sortExpression);
                 SortCollection sorters = (SortCollection) sortQuery.getSorters();
-                Iterator sortIterator = sorters.getSorters().iterator();
+                Iterator<?> sortIterator = sorters.getSorters().iterator();
 
                 while (sortIterator.hasNext()) {
                     ISort sorter = (ISort) sortIterator.next();
@@ -631,215 +1745,668 @@ public class SolrThing extends Thing {
                     }
                 }
             }
-            long timeStart = System.currentTimeMillis();
+            ServiceMetrics.Request metrics = this._metrics.start("ExecutePHQuery", coreName);
 
             try {
+                metrics.query(solrQuery);
                 QueryResponse qr = server.query(solrQuery);
-                if (_logger.isInfoEnabled()) {
-                    print(qr);
-                }
+                metrics.response(qr);
+                long conversionStart = System.nanoTime();
 
                 Map<String, Map<String, List<String>>> highlighting = qr.getHighlighting();
 
                 SolrDocumentList docs = qr.getResults();
                 if (docs != null) {
-                    for (int i = 0; i < docs.size() && (double) i <= new Integer(500); ++i) {
+                    // every row of the requested page, no more than asked even if Solr returned more
+                    for (int i = 0; i < docs.size() && i < rows; ++i) {
                         SolrDocument doc = docs.get(i);
-                        ValueCollection values = new ValueCollection();
-                        Iterator fieldDefinitionIterator = it.getDataShape().getFields().values().iterator();
-
-                        while (fieldDefinitionIterator.hasNext()) {
-                            FieldDefinition fieldDefinition = (FieldDefinition) fieldDefinitionIterator.next();
-                            Object value = doc.get(fieldDefinition.getName());
-                            String rowId = (String) doc.get("id");
-                            if (highlighting.containsKey(rowId) && highlighting.get(rowId).containsKey(fieldDefinition.getName())) {
-                                value = highlighting.get(rowId).get(fieldDefinition.getName());
-                            }
-                            if (value != null) {
-                                values.put(fieldDefinition.getName(), BaseTypes.ConvertToPrimitive(value, fieldDefinition.getBaseType()));
-                            }
-                        }
+                        Map<String, List<String>> docHighlighting = highlighting != null ? highlighting.get(String.valueOf(doc.getFieldValue(uniqueKey))) : null;
+                        it.addRow(plan.toRow(doc, docHighlighting));
+                    }
+                }
+                metrics.conversion(System.nanoTime() - conversionStart);
+                metrics.rows(it.getRowCount());
+            } catch (Exception exceptionError) {
+                metrics.failed();
+                this.finishMetrics(metrics);
+                _logger.error("Error Executing Query: " + exceptionError.getMessage());
+                throw new Exception("Error Executing Query: " + exceptionError.getMessage(), exceptionError);
+            }
+
+
+            _logger.debug("query took " + this.finishMetrics(metrics) + " ms");
+            return it;
+        }
+    }
+
+
+    /*
+     * Typeahead: returns the suggestions of the Solr suggester (FST, AnalyzingInfix, ... lookups, configured in the
+     * suggest component of the core) for the prefix typed so far. Suggestions are cached by prefix, so most keystrokes
+     * are answered without calling Solr, see SuggestionCache.
+     */
+
+    @ThingworxServiceDefinition(
+            name = "ExecuteSuggest",
+            description = "Returns the suggestions of the Solr suggester for a prefix"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Result with the fields term, weight and payload",
+            baseType = "INFOTABLE"
+    )
+    public InfoTable ExecuteSuggest(@ThingworxServiceParameter(name = "coreName", description = "Core/index name", baseType = "STRING") String coreName,
+                                    @ThingworxServiceParameter(name = "dictionary", description = "Suggester dictionary, the default ones of the suggest component if empty", baseType = "STRING") String dictionary,
+                                    @ThingworxServiceParameter(name = "prefix", description = "Text typed so far", baseType = "STRING") String prefix,
+                                    @ThingworxServiceParameter(name = "count", description = "Maximum number of suggestions", baseType = "NUMBER", aspects = {"defaultValue:10"}) Double count) throws Exception {
+        InfoTable it = new InfoTable();
+        it.addField(new FieldDefinition("term", BaseTypes.STRING));
+        it.addField(new FieldDefinition("weight", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("payload", BaseTypes.STRING));
+        if (prefix == null || prefix.length() == 0) {
+            return it;
+        }
+        int maxSuggestions = count != null ? Math.max(1, count.intValue()) : 10;
 
-                        it.addRow(values);
+        SuggestionCache suggestionCache = this._suggestionCache;
+        List<SuggestionCache.Suggestion> suggestions = suggestionCache != null ? suggestionCache.get(coreName, dictionary, prefix, maxSuggestions) : null;
+        if (suggestions == null) {
+            long generation = suggestionCache != null ? suggestionCache.getGeneration(coreName) : 0;
+            ServiceMetrics.Request metrics = this._metrics.start("ExecuteSuggest", coreName);
+            SolrQuery solrQuery = new SolrQuery();
+            solrQuery.setRequestHandler(this._suggestHandler);
+            solrQuery.set("suggest", true);
+            solrQuery.set("suggest.q", prefix);
+            solrQuery.set("suggest.count", maxSuggestions);
+            if (dictionary != null && dictionary.length() > 0) {
+                solrQuery.set("suggest.dictionary", dictionary);
+            }
+            try {
+                metrics.query(solrQuery);
+                QueryResponse qr = this.getSolrClient(coreName).query(solrQuery);
+                metrics.response(qr);
+                suggestions = new ArrayList<>();
+                if (qr.getSuggesterResponse() != null) {
+                    for (List<Suggestion> dictionarySuggestions : qr.getSuggesterResponse().getSuggestions().values()) {
+                        for (Suggestion suggestion : dictionarySuggestions) {
+                            suggestions.add(new SuggestionCache.Suggestion(suggestion.getTerm(), suggestion.getWeight(), suggestion.getPayload()));
+                        }
                     }
                 }
+                metrics.rows(suggestions.size());
+            } catch (Exception exceptionError) {
+                metrics.failed();
+                this.finishMetrics(metrics);
+                _logger.error("Error Executing Suggest: " + exceptionError.getMessage());
+                throw new Exception("Error Executing Suggest: " + exceptionError.getMessage(), exceptionError);
+            }
+            this.finishMetrics(metrics);
+            if (suggestionCache != null) {
+                suggestionCache.put(coreName, dictionary, prefix, maxSuggestions, suggestions, generation);
+            }
+        }
+
+        for (SuggestionCache.Suggestion suggestion : suggestions) {
+            if (it.getRowCount() >= maxSuggestions) {
+                break;
+            }
+            ValueCollection values = new ValueCollection();
+            values.put("term", new StringPrimitive(suggestion.term));
+            values.put("weight", new NumberPrimitive((Number) suggestion.weight));
+            if (suggestion.payload != null && suggestion.payload.length() > 0) {
+                values.put("payload", new StringPrimitive(suggestion.payload));
+            }
+            it.addRow(values);
+        }
+        return it;
+    }
+
+    @ThingworxServiceDefinition(
+            name = "ExecuteFuzzyQuery",
+            description = "Execute an Solr query with a specified document interval and return an Infotable"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Result",
+            baseType = "INFOTABLE"
+    )
+
+    /*
+     *An implementation of the FuzzyQuery methods from org.apache.lucene.search.FuzzyQuery
+     * term - the term to search for
+     * maxEdits - must be >= 0 and <= LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE.
+     * prefixLength - length of common (non-fuzzy) prefix
+     * maxExpansions - the maximum number of terms to match.
+     * transpositions - true if transpositions should be treated as a primitive edit operation.
+     * Each token of the term gets its own fuzzy clause, and all of them must match. The Solr query syntax only carries
+     * maxEdits: prefixLength, maxExpansions and transpositions keep the Solr defaults (0, 50 and true).
+     */
+
+    public InfoTable ExecuteFuzzyQuery(
+            @ThingworxServiceParameter(name = "coreName", description = "Core/index name", baseType = "STRING") String coreName,
+            @ThingworxServiceParameter(name = "dataShape", description = "Data shape", baseType = "DATASHAPENAME") String dataShape,
+            //fuzzy parameters
+            @ThingworxServiceParameter(name = "String field name", description = "at least one field must be defined as string", baseType = "STRING") String strField,
+            @ThingworxServiceParameter(name = "Default field name", description = "field assumed to be the default field and omitted from the query", baseType = "STRING") String ommitField,
+            @ThingworxServiceParameter(name = "Term", description = "the term to search for", baseType = "STRING") String strTerm,
+            @ThingworxServiceParameter(name = "Prefix Length", description = "the non-fuzzy prefix length", baseType = "STRING") String prefixLen,
+            @ThingworxServiceParameter(name = "maxEdits", description = "maximum edit distance of each token, 0 to 2 (default 2)", baseType = "STRING") String sMaxEdits,
+            @ThingworxServiceParameter(name = "maxExpansions", description = "the maximum number of terms to match", baseType = "STRING") String maxExpansions,
+            @ThingworxServiceParameter(name = "transpositions", description = "true if transpositions should be treated as a primitive edit operation", baseType = "BOOLEAN") Boolean transpositions)
+            throws Exception {
+
+        DataShape ds = (DataShape) EntityUtilities.findEntity(dataShape, ThingworxRelationshipTypes.DataShape);
+        if (ds == null) {
+            throw new Exception("Could not execute query because the Datashape does not exist, or a Datashape was not specified [" + dataShape + "]");
+        } else {
+            InfoTable it = InfoTableInstanceFactory.createInfoTableFromDataShape(ds.getDataShape());
+            RowMappingPlan plan = this.getMappingPlan(ds);
+            SolrClient server = this.getSolrClient(coreName);
+
+            if (strTerm == null || strTerm.trim().length() == 0) {
+                throw new Exception("Could not execute query because no term was specified");
+            }
+            if (strField == null || strField.length() == 0) {
+                throw new Exception("Could not execute query because no string field was specified");
+            }
+            int maxEdits = LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE;
+            if (sMaxEdits != null && sMaxEdits.trim().length() > 0) {
+                try {
+                    maxEdits = Math.max(0, Math.min(LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE, Integer.parseInt(sMaxEdits.trim())));
+                } catch (NumberFormatException exceptionError) {
+                    throw new Exception("Could not execute query because maxEdits is not a number [" + sMaxEdits + "]");
+                }
+            }
+
+            ServiceMetrics.Request metrics = this._metrics.start("ExecuteFuzzyQuery", coreName);
+            try {
+                //build fuzzy query, one clause per token of the term
+                boolean defaultField = strField.equals(ommitField);
+                SolrQuery solrQuery = new SolrQuery(this._fuzzyQueries.build(strField, strTerm, maxEdits, defaultField));
+                if (defaultField) {
+                    solrQuery.set(CommonParams.DF, strField);
+                }
+                solrQuery.setFields(plan.getFieldNames());
+
+                InfoTableStreamingCallback callback = new InfoTableStreamingCallback(it, plan, 500);
+                metrics.query(solrQuery);
+                QueryResponse qr = server.queryAndStreamResponse(solrQuery, callback);
+                metrics.response(qr);
+                metrics.conversion(callback.getConversionNanos());
+                metrics.rows(it.getRowCount());
             } catch (Exception exceptionError) {
+                metrics.failed();
+                this.finishMetrics(metrics);
                 _logger.error("Error Executing Query: " + exceptionError.getMessage());
+                throw new Exception("Error Executing Query: " + exceptionError.getMessage(), exceptionError);
+            }
+
+
+            _logger.debug("query took " + this.finishMetrics(metrics) + " ms");
+            return it;
+        }
+    }
+
+
+    /*
+     * Searches several cores at once (e.g. one core per plant). The cores are queried concurrently and share the
+     * timeout as a single deadline; the cores that failed or did not answer in time are reported in the cores table
+     * while the documents of the others are still returned. Rows are merged by the sort expression, or by descending
+     * relevancy score without one, and tagged with their sourceCore.
+     */
+
+    @ThingworxServiceDefinition(
+            name = "ExecuteFederatedQuery",
+            description = "Execute an Solr query on several cores concurrently and return the merged results"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Result with the fields rows (INFOTABLE, with sourceCore and score), cores (INFOTABLE: coreName, succeeded, numFound, latency, error) and partial (BOOLEAN)",
+            baseType = "INFOTABLE"
+    )
+    public InfoTable ExecuteFederatedQuery(@ThingworxServiceParameter(name = "coreNames", description = "Comma separated list of the core/index names", baseType = "STRING") String coreNames,
+                                           @ThingworxServiceParameter(name = "query", description = "Solr query string", baseType = "STRING") String query,
+                                           @ThingworxServiceParameter(name = "sortExpression", description = "Sort expression, relevancy score if empty", baseType = "QUERY") JSONObject sortExpression,
+                                           @ThingworxServiceParameter(name = "filterQuery", description = "fq parameter from Solr API", baseType = "STRING") String filterQuery,
+                                           @ThingworxServiceParameter(name = "dataShape", description = "Data shape", baseType = "DATASHAPENAME") String dataShape,
+                                           @ThingworxServiceParameter(name = "maxItems", description = "Max items to return", baseType = "NUMBER", aspects = {"defaultValue:500"}) Double maxItems,
+                                           @ThingworxServiceParameter(name = "timeout", description = "Deadline (milliseconds) of the whole search", baseType = "NUMBER", aspects = {"defaultValue:10000"}) Double timeout)
+            throws Exception {
+
+        DataShape ds = (DataShape) EntityUtilities.findEntity(dataShape, ThingworxRelationshipTypes.DataShape);
+        if (ds == null) {
+            throw new Exception("Could not execute query because the Datashape does not exist, or a Datashape was not specified [" + dataShape + "]");
+        }
+        List<String> cores = splitList(coreNames);
+        if (cores.isEmpty()) {
+            throw new Exception("Could not execute query because no core was specified");
+        }
+        FederatedSearch federatedSearch = this._federatedSearch;
+        if (federatedSearch == null) {
+            throw new Exception("The Solr connection is not initialized, make sure the Thing is enabled and running");
+        }
+        SolrClientRegistry registry = this.getClientRegistry();
+
+        RowMappingPlan plan = this.getMappingPlan(ds);
+        int limit = maxItems != null ? maxItems.intValue() : 500;
+        List<SolrQuery.SortClause> sortClauses = buildSortClauses(sortExpression);
+        SolrQuery solrQuery = new SolrQuery();
+        solrQuery.setQuery(query);
+        solrQuery.setFields(plan.getFieldNames());
+        solrQuery.addField(FederatedSearch.SCORE);
+        // the documents are merged on their sort values, which must be returned even when not in the data shape
+        for (SolrQuery.SortClause sortClause : sortClauses) {
+            if (!Arrays.asList(solrQuery.getFields().split(",")).contains(sortClause.getItem())) {
+                solrQuery.addField(sortClause.getItem());
+            }
+        }
+        solrQuery.setStart(0);
+        solrQuery.setRows(limit);
+        if (filterQuery != null) {
+            solrQuery.addFilterQuery(filterQuery);
+        }
+        for (SolrQuery.SortClause sortClause : sortClauses) {
+            solrQuery.addSort(sortClause);
+        }
+
+        long timeStart = System.currentTimeMillis();
+        List<FederatedSearch.CoreResult> coreResults = federatedSearch.search(cores, core -> this.getCoreClient(registry, core), solrQuery,
+                timeout != null ? timeout.longValue() : 10000L);
+
+        // the data shape is copied, so that adding the sourceCore and score fields leaves the DataShape entity untouched
+        InfoTable rows = InfoTableInstanceFactory.createInfoTableFromDataShape(ds.getDataShape().clone());
+        if (rows.getDataShape().getFieldDefinition("sourceCore") == null) {
+            rows.addField(new FieldDefinition("sourceCore", BaseTypes.STRING));
+        }
+        if (rows.getDataShape().getFieldDefinition(FederatedSearch.SCORE) == null) {
+            rows.addField(new FieldDefinition(FederatedSearch.SCORE, BaseTypes.NUMBER));
+        }
+        for (FederatedSearch.SourcedDocument sourcedDocument : FederatedSearch.merge(coreResults, sortClauses, limit)) {
+            ValueCollection values = plan.toRow(sourcedDocument.document);
+            values.put("sourceCore", new StringPrimitive(sourcedDocument.coreName));
+            Object score = sourcedDocument.document.getFirstValue(FederatedSearch.SCORE);
+            if (score instanceof Number) {
+                values.put(FederatedSearch.SCORE, new NumberPrimitive((Number) score));
+            }
+            rows.addRow(values);
+        }
+
+        InfoTable coresTable = new InfoTable();
+        coresTable.addField(new FieldDefinition("coreName", BaseTypes.STRING));
+        coresTable.addField(new FieldDefinition("succeeded", BaseTypes.BOOLEAN));
+        coresTable.addField(new FieldDefinition("numFound", BaseTypes.NUMBER));
+        coresTable.addField(new FieldDefinition("latency", BaseTypes.NUMBER));
+        coresTable.addField(new FieldDefinition("error", BaseTypes.STRING));
+        boolean partial = false;
+        for (FederatedSearch.CoreResult coreResult : coreResults) {
+            ValueCollection values = new ValueCollection();
+            values.put("coreName", new StringPrimitive(coreResult.coreName));
+            values.put("succeeded", new BooleanPrimitive(coreResult.error == null));
+            values.put("latency", new NumberPrimitive((Number) coreResult.latency));
+            if (coreResult.documents != null) {
+                values.put("numFound", new NumberPrimitive((Number) coreResult.documents.getNumFound()));
+            }
+            this._metrics.record("ExecuteFederatedQuery", coreResult.coreName, coreResult.latency,
+                    coreResult.documents != null ? coreResult.documents.size() : 0, coreResult.error != null);
+            if (coreResult.error != null) {
+                values.put("error", new StringPrimitive(coreResult.error));
+                _logger.warn("Federated query failed on core " + coreResult.coreName + ": " + coreResult.error);
+                partial = true;
+            }
+            coresTable.addRow(values);
+        }
+
+        InfoTable result = new InfoTable();
+        result.addField(new FieldDefinition("rows", BaseTypes.INFOTABLE));
+        result.addField(new FieldDefinition("cores", BaseTypes.INFOTABLE));
+        result.addField(new FieldDefinition("partial", BaseTypes.BOOLEAN));
+        ValueCollection values = new ValueCollection();
+        values.put("rows", new InfoTablePrimitive(rows));
+        values.put("cores", new InfoTablePrimitive(coresTable));
+        values.put("partial", new BooleanPrimitive(partial));
+        result.addRow(values);
+
+        _logger.debug("federated query on " + cores.size() + " cores took " + (System.currentTimeMillis() - timeStart) + " ms");
+        return result;
+    }
+
+    /*
+     * Many small queries in a single service call: each row of queries has an id, a coreName, a query and optionally
+     * a filterQuery, a sort (Solr syntax, e.g. "timestamp desc") and a number of rows. Without a dataShape only the
+     * number of matching documents is computed, like GetNumberOfResults. A failed or timed out query only fails its
+     * own result row.
+     */
+
+    @ThingworxServiceDefinition(
+            name = "ExecuteQueryBatch",
+            description = "Execute many Solr queries concurrently and return one result row per query"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "One row per query with its id, coreName, succeeded, numFound, latency, error and rows (INFOTABLE, when a data shape is given)",
+            baseType = "INFOTABLE"
+    )
+    public InfoTable ExecuteQueryBatch(@ThingworxServiceParameter(name = "queries", description = "Queries to execute, with the fields id, coreName, query, filterQuery, sort and rows", baseType = "INFOTABLE") InfoTable queries,
+                                       @ThingworxServiceParameter(name = "dataShape", description = "Data shape of the returned rows, empty to only count the matching documents", baseType = "DATASHAPENAME") String dataShape,
+                                       @ThingworxServiceParameter(name = "parallelism", description = "Max queries of this batch executed at the same time", baseType = "NUMBER", aspects = {"defaultValue:8"}) Double parallelism,
+                                       @ThingworxServiceParameter(name = "timeout", description = "Timeout (milliseconds) of each query", baseType = "NUMBER", aspects = {"defaultValue:10000"}) Double timeout)
+            throws Exception {
+
+        DataShape ds = null;
+        if (dataShape != null && dataShape.length() > 0) {
+            ds = (DataShape) EntityUtilities.findEntity(dataShape, ThingworxRelationshipTypes.DataShape);
+            if (ds == null) {
+                throw new Exception("Could not execute queries because the Datashape does not exist [" + dataShape + "]");
+            }
+        }
+        QueryBatch queryBatch = this._queryBatch;
+        if (queryBatch == null) {
+            throw new Exception("The Solr connection is not initialized, make sure the Thing is enabled and running");
+        }
+        SolrClientRegistry registry = this.getClientRegistry();
+
+        List<QueryBatch.Request> requests = new ArrayList<>();
+        if (queries != null) {
+            for (ValueCollection row : queries.getRows()) {
+                Object id = row.getValue("id");
+                Object rows = row.getValue("rows");
+                requests.add(new QueryBatch.Request(id != null ? String.valueOf(id) : String.valueOf(requests.size()),
+                        (String) row.getValue("coreName"), (String) row.getValue("query"), (String) row.getValue("filterQuery"),
+                        (String) row.getValue("sort"), rows instanceof Number ? ((Number) rows).intValue() : 500));
             }
+        }
 
-
-            _logger.info("query took " + (System.currentTimeMillis() - timeStart) + " ms");
-            return it;
+        long timeStart = System.currentTimeMillis();
+        List<QueryBatch.Result> results = queryBatch.execute(requests, core -> this.getCoreClient(registry, core), ds != null ? this.getMappingPlan(ds) : null,
+                ds != null ? ds.getDataShape() : null, parallelism != null ? parallelism.intValue() : 8, timeout != null ? timeout.longValue() : 10000L);
+
+        InfoTable it = new InfoTable();
+        it.addField(new FieldDefinition("id", BaseTypes.STRING));
+        it.addField(new FieldDefinition("coreName", BaseTypes.STRING));
+        it.addField(new FieldDefinition("succeeded", BaseTypes.BOOLEAN));
+        it.addField(new FieldDefinition("numFound", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("latency", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("error", BaseTypes.STRING));
+        it.addField(new FieldDefinition("rows", BaseTypes.INFOTABLE));
+        for (QueryBatch.Result result : results) {
+            ValueCollection values = new ValueCollection();
+            values.put("id", new StringPrimitive(result.request.id));
+            values.put("coreName", new StringPrimitive(result.request.coreName));
+            values.put("succeeded", new BooleanPrimitive(result.error == null));
+            values.put("latency", new NumberPrimitive((Number) result.latency));
+            if (result.error == null) {
+                values.put("numFound", new NumberPrimitive((Number) result.numFound));
+            } else {
+                values.put("error", new StringPrimitive(result.error));
+                _logger.warn("Batch query " + result.request.id + " failed on core " + result.request.coreName + ": " + result.error);
+            }
+            if (result.rows != null) {
+                values.put("rows", new InfoTablePrimitive(result.rows));
+            }
+            this._metrics.record("ExecuteQueryBatch", result.request.coreName, result.latency,
+                    result.rows != null ? result.rows.getRowCount() : 0, result.error != null);
+            it.addRow(values);
         }
+
+        _logger.debug("batch of " + requests.size() + " queries took " + (System.currentTimeMillis() - timeStart) + " ms");
+        return it;
     }
 
+    /*
+     * Aggregations pushed down to Solr: no document is returned (rows=0), only the facet buckets. Field facets count
+     * the values of each listed field, a range facet counts the values of rangeField between rangeStart and rangeEnd
+     * in steps of rangeGap, pivotFields (e.g. category,brand) counts the nested value combinations and jsonFacet is
+     * passed as-is to the JSON Facet API, e.g. {categories: {type: terms, field: cat, facet: {avgPrice: "avg(price)"}}}.
+     */
 
     @ThingworxServiceDefinition(
-            name = "ExecuteFuzzyQuery",
-            description = "Execute an Solr query with a specified document interval and return an Infotable"
+            name = "ExecuteFacetQuery",
+            description = "Execute a faceting/aggregation Solr query (field, range, pivot and JSON Facet API) and return the facet buckets"
     )
     @ThingworxServiceResult(
             name = "result",
-            description = "Result",
+            description = "One row per facet with its type (field, range, pivot or json), name and buckets (value, count, aggregations and nested facets)",
             baseType = "INFOTABLE"
     )
-
-    /*
-     *An implementation of the FuzzyQuery methods from org.apache.lucene.search.FuzzyQuery
-     * term - the term to search for
-     * maxEdits - must be >= 0 and <= LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE.
-     * prefixLength - length of common (non-fuzzy) prefix
-     * maxExpansions - the maximum number of terms to match.
-     * transpositions - true if transpositions should be treated as a primitive edit operation.
-     */
-
-    public InfoTable ExecuteFuzzyQuery(
-            @ThingworxServiceParameter(name = "coreName", description = "Core/index name", baseType = "STRING") String coreName,
-            @ThingworxServiceParameter(name = "dataShape", description = "Data shape", baseType = "DATASHAPENAME") String dataShape,
-            //fuzzy parameters
-            @ThingworxServiceParameter(name = "String field name", description = "at least one field must be defined as string", baseType = "STRING") String strField,
-            @ThingworxServiceParameter(name = "Default field name", description = "field assumed to be the default field and omitted from the query", baseType = "STRING") String ommitField,
-            @ThingworxServiceParameter(name = "Term", description = "the term to search for", baseType = "STRING") String strTerm,
-            @ThingworxServiceParameter(name = "Prefix Length", description = "the non-fuzzy prefix length", baseType = "STRING") String prefixLen,
-            @ThingworxServiceParameter(name = "maxEdits", description = "minimum similarity as int", baseType = "STRING") String sMaxEdits,
-            @ThingworxServiceParameter(name = "maxExpansions", description = "the maximum number of terms to match", baseType = "STRING") String maxExpansions,
-            @ThingworxServiceParameter(name = "transpositions", description = "true if transpositions should be treated as a primitive edit operation", baseType = "BOOLEAN") Boolean transpositions)
+    public InfoTable ExecuteFacetQuery(@ThingworxServiceParameter(name = "coreName", description = "Core/index name", baseType = "STRING") String coreName,
+                                       @ThingworxServiceParameter(name = "query", description = "Solr query string", baseType = "STRING", aspects = {"defaultValue:*:*"}) String query,
+                                       @ThingworxServiceParameter(name = "filterQuery", description = "fq parameter from Solr API", baseType = "STRING") String filterQuery,
+                                       @ThingworxServiceParameter(name = "facetFields", description = "Comma separated list of the fields to facet on", baseType = "STRING") String facetFields,
+                                       @ThingworxServiceParameter(name = "facetLimit", description = "Max buckets per field or pivot facet", baseType = "NUMBER", aspects = {"defaultValue:100"}) Double facetLimit,
+                                       @ThingworxServiceParameter(name = "facetMinCount", description = "Min count of a returned bucket", baseType = "NUMBER", aspects = {"defaultValue:1"}) Double facetMinCount,
+                                       @ThingworxServiceParameter(name = "rangeField", description = "Field of the range facet (optional)", baseType = "STRING") String rangeField,
+                                       @ThingworxServiceParameter(name = "rangeStart", description = "Lower bound of the range facet, e.g. 0 or NOW/DAY-7DAYS", baseType = "STRING") String rangeStart,
+                                       @ThingworxServiceParameter(name = "rangeEnd", description = "Upper bound of the range facet, e.g. 100 or NOW/DAY", baseType = "STRING") String rangeEnd,
+                                       @ThingworxServiceParameter(name = "rangeGap", description = "Size of each range bucket, e.g. 10 or +1DAY", baseType = "STRING") String rangeGap,
+                                       @ThingworxServiceParameter(name = "pivotFields", description = "Comma separated list of the fields of a pivot facet (optional)", baseType = "STRING") String pivotFields,
+                                       @ThingworxServiceParameter(name = "jsonFacet", description = "JSON Facet API request (optional)", baseType = "JSON") JSONObject jsonFacet)
             throws Exception {
 
-        DataShape ds = (DataShape) EntityUtilities.findEntity(dataShape, ThingworxRelationshipTypes.DataShape);
-        if (ds == null) {
-            throw new Exception("Could not execute query because the Datashape does not exist, or a Datashape was not specified [" + dataShape + "]");
-        } else {
-            InfoTable it = InfoTableInstanceFactory.createInfoTableFromDataShape(ds.getDataShape());
-            double timeout = 60000.0D;
-            if (this._timeout > 0) {
-                timeout = (double) this._timeout;
-            }
-            boolean ignoreSSLErrors = false;
-            boolean useNTLM = false;
-            boolean useProxy = false;
-            CloseableHttpClient client = HttpUtilities.createHttpClient(this._username, this._password, ignoreSSLErrors, timeout, useNTLM, "", "", useProxy, "", -1, "");
-            SolrClient server = new HttpSolrClient.Builder(this.buildBaseURL(coreName).toString()).withHttpClient(client).build();
-
-            long timeStart = System.currentTimeMillis();
+        String cacheKey = QueryResultCache.key("ExecuteFacetQuery", coreName, query, filterQuery, facetFields, facetLimit, facetMinCount,
+                rangeField, rangeStart, rangeEnd, rangeGap, pivotFields, jsonFacet);
+        long cacheGeneration = this.getCacheGeneration(coreName);
+        InfoTable cached = this.getCachedResult(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
 
-            //build fuzzy query
-            int maxEdits = Integer.parseInt(sMaxEdits);
-            Analyzer standardAnalyzer = new StandardAnalyzer(ENGLISH_STOP_WORDS_SET);
+        SolrClient server = this.getSolrClient(coreName);
+        SolrQuery solrQuery = new SolrQuery();
+        solrQuery.setQuery(query != null && query.length() > 0 ? query : "*:*");
+        solrQuery.setRows(0);
+        if (filterQuery != null && filterQuery.length() > 0) {
+            solrQuery.addFilterQuery(filterQuery);
+        }
 
-            StandardQueryParser standardQueryParser = new StandardQueryParser(standardAnalyzer);
+        solrQuery.setFacetLimit(facetLimit != null ? facetLimit.intValue() : 100);
+        solrQuery.setFacetMinCount(facetMinCount != null ? facetMinCount.intValue() : 1);
+        List<String> fieldNames = splitList(facetFields);
+        if (!fieldNames.isEmpty()) {
+            solrQuery.addFacetField(fieldNames.toArray(new String[0]));
+        }
+        if (rangeField != null && rangeField.length() > 0) {
+            if (rangeStart == null || rangeEnd == null || rangeGap == null) {
+                throw new Exception("A range facet requires rangeStart, rangeEnd and rangeGap");
+            }
+            solrQuery.setFacet(true);
+            solrQuery.add(FacetParams.FACET_RANGE, rangeField);
+            solrQuery.set(FacetParams.FACET_RANGE_START, rangeStart);
+            solrQuery.set(FacetParams.FACET_RANGE_END, rangeEnd);
+            solrQuery.set(FacetParams.FACET_RANGE_GAP, rangeGap);
+        }
+        List<String> pivotFieldNames = splitList(pivotFields);
+        if (!pivotFieldNames.isEmpty()) {
+            solrQuery.addFacetPivotField(String.join(",", pivotFieldNames));
+        }
+        if (jsonFacet != null && jsonFacet.length() > 0) {
+            solrQuery.set("json.facet", jsonFacet.toString());
+        }
 
-            TokenStream term = standardQueryParser.getAnalyzer().tokenStream(strField, strTerm);
-            Term currentTerm = new Term(strField, String.valueOf(term));
-            FuzzyQuery queryFz = new FuzzyQuery(currentTerm, maxEdits, Integer.valueOf(prefixLen), Integer.valueOf(maxExpansions), Boolean.valueOf(transpositions));
-            SolrQuery solrQuery = new SolrQuery(queryFz.toString());
+        ServiceMetrics.Request metrics = this._metrics.start("ExecuteFacetQuery", coreName);
+        QueryResponse qr;
+        try {
+            metrics.query(solrQuery);
+            qr = server.query(solrQuery);
+            metrics.response(qr);
+        } catch (Exception exceptionError) {
+            metrics.failed();
+            this.finishMetrics(metrics);
+            _logger.error("Error Executing Query: " + exceptionError.getMessage());
+            throw new Exception("Error Executing Query: " + exceptionError.getMessage(), exceptionError);
+        }
+        long conversionStart = System.nanoTime();
+        InfoTable it = FacetResults.toInfoTable(qr);
+        metrics.conversion(System.nanoTime() - conversionStart);
+        metrics.rows(it.getRowCount());
+        this.cacheResult(cacheKey, coreName, it, cacheGeneration);
+
+        _logger.debug("query took " + this.finishMetrics(metrics) + " ms");
+        return it;
+    }
 
-            try {
-                QueryResponse qr = server.query(solrQuery);
-                if (_logger.isInfoEnabled()) {
-                    print(qr);
-                }
 
-                SolrDocumentList docs = qr.getResults();
-                if (docs != null) {
-                    for (int i = 0; i < docs.size() && (double) i <= new Integer(500); ++i) {
-                        SolrDocument doc = docs.get(i);
-                        ValueCollection values = new ValueCollection();
-                        Iterator fieldDefinitionIterator = it.getDataShape().getFields().values().iterator();
-
-                        while (fieldDefinitionIterator.hasNext()) {
-                            FieldDefinition fieldDefinition = (FieldDefinition) fieldDefinitionIterator.next();
-                            Object value = doc.get(fieldDefinition.getName());
-                            if (value != null) {
-                                values.put(fieldDefinition.getName(), BaseTypes.ConvertToPrimitive(value, fieldDefinition.getBaseType()));
-                            }
-                        }
+    /*
+     * Looks documents up by uniqueKey with the realtime get handler (/get) in a single request, instead of searching
+     * for them. Realtime get reads the update log, so it also returns the documents added or changed since the last
+     * commit, and it never goes through the query result cache. In LoadBalanced mode it is always sent to the master
+     * node, as the other nodes do not have the updates not replicated yet.
+     */
 
-                        it.addRow(values);
-                    }
+    @ThingworxServiceDefinition(
+            name = "GetDocumentsById",
+            description = "Returns the documents with the given ids, including the ones not committed yet"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Result",
+            baseType = "INFOTABLE"
+    )
+    public InfoTable GetDocumentsById(@ThingworxServiceParameter(name = "coreName", description = "Core/index name", baseType = "STRING") String coreName,
+                                      @ThingworxServiceParameter(name = "ids", description = "Comma separated list of the uniqueKey values of the documents", baseType = "STRING") String ids,
+                                      @ThingworxServiceParameter(name = "dataShape", description = "Data shape", baseType = "DATASHAPENAME") String dataShape,
+                                      @ThingworxServiceParameter(name = "includeQueued", description = "Send the documents waiting in the asynchronous indexing queue first, so that they are found as well", baseType = "BOOLEAN", aspects = {"defaultValue:false"}) Boolean includeQueued)
+            throws Exception {
+        DataShape ds = (DataShape) EntityUtilities.findEntity(dataShape, ThingworxRelationshipTypes.DataShape);
+        if (ds == null) {
+            throw new Exception("Could not execute query because the Datashape does not exist, or a Datashape was not specified [" + dataShape + "]");
+        }
+        InfoTable it = InfoTableInstanceFactory.createInfoTableFromDataShape(ds.getDataShape());
+        List<String> idList = new ArrayList<>();
+        if (ids != null) {
+            for (String id : ids.split(",")) {
+                if (id.trim().length() > 0) {
+                    idList.add(id.trim());
                 }
-            } catch (Exception exceptionError) {
-                _logger.error("Error Executing Query: " + exceptionError.getMessage());
             }
+        }
+        if (idList.isEmpty()) {
+            return it;
+        }
 
+        AsyncIndexer asyncIndexer = this._asyncIndexer;
+        if (Boolean.TRUE.equals(includeQueued) && asyncIndexer != null) {
+            asyncIndexer.flush(this._timeout > 0 ? this._timeout : 60000);
+        }
 
-            _logger.info("query took " + (System.currentTimeMillis() - timeStart) + " ms");
-            return it;
+        RowMappingPlan plan = this.getMappingPlan(ds);
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set(CommonParams.FL, String.join(",", plan.getFieldNames()));
+        ServiceMetrics.Request metrics = this._metrics.start("GetDocumentsById", coreName);
+        try {
+            SolrDocumentList docs = this.getSolrClient(coreName).getById(idList, params);
+            long conversionStart = System.nanoTime();
+            for (SolrDocument doc : docs) {
+                it.addRow(plan.toRow(doc));
+            }
+            metrics.conversion(System.nanoTime() - conversionStart);
+            metrics.rows(it.getRowCount());
+        } catch (Exception exceptionError) {
+            metrics.failed();
+            this.finishMetrics(metrics);
+            _logger.error("Error Executing Query: " + exceptionError.getMessage());
+            throw new Exception("Error Executing Query: " + exceptionError.getMessage(), exceptionError);
         }
-    }
 
+        _logger.debug("get took " + this.finishMetrics(metrics) + " ms");
+        return it;
+    }
 
     @ThingworxServiceDefinition(
             name = "IndexDocument",
-            description = "Add a document to Solr"
+            description = "Add a document to Solr (queued and sent in the background when AsyncIndexing is enabled)"
     )
 
     public void IndexDocument(@ThingworxServiceParameter(name = "coreName", description = "Core/index name", baseType = "STRING") String coreName, @ThingworxServiceParameter(name = "document", description = "Document to index, as a JSON object", baseType = "JSON") JSONObject document) throws Exception {
-        double timeout = 60000.0D;
-        if (this._timeout > 0) {
-            timeout = (double) this._timeout;
-        }
-
-        boolean ignoreSSLErrors = false;
-        boolean useNTLM = false;
-        boolean useProxy = false;
-        CloseableHttpClient client = HttpUtilities.createHttpClient(this._username, this._password, ignoreSSLErrors, timeout, useNTLM, "", "", useProxy, "", -1, "");
-        SolrClient server = new HttpSolrClient.Builder(this.buildBaseURL(coreName).toString()).withHttpClient(client).build();
-        // SolrClient server = new HttpSolrClient(this.buildBaseURL(coreName).toString(), client);
+        SolrClient server = this.getSolrClient(coreName);
         SolrInputDocument doc = new SolrInputDocument();
-        Iterator fieldNames = document.keys();
+        Iterator<String> fieldNames = document.keys();
 
         while (fieldNames.hasNext()) {
-            String fieldName = (String) fieldNames.next();
+            String fieldName = fieldNames.next();
             doc.addField(fieldName, document.get(fieldName));
         }
 
-        Collection<SolrInputDocument> docs = new ArrayList();
+        AsyncIndexer asyncIndexer = this._asyncIndexer;
+        if (asyncIndexer != null) {
+            asyncIndexer.enqueue(coreName, doc);
+            return;
+        }
+
+        ServiceMetrics.Request metrics = this._metrics.start("IndexDocument", coreName);
+        Collection<SolrInputDocument> docs = new ArrayList<>();
         docs.add(doc);
-        server.add(docs);
-        server.commit();
+        try {
+            server.add(docs);
+            server.commit();
+            metrics.rows(1);
+        } catch (Exception exceptionError) {
+            metrics.failed();
+            throw exceptionError;
+        } finally {
+            this.finishMetrics(metrics);
+        }
+        this.invalidateCachedResults(coreName);
     }
 
     @ThingworxServiceDefinition(
             name = "IndexMultipleDocuments",
-            description = "Add a document to Solr"
+            description = "Add documents to Solr in batches, and return the outcome of each batch"
     )
-    public InfoTable IndexMultipleDocuments(@ThingworxServiceParameter(name = "coreName", description = "Core/index name", baseType = "STRING") String coreName, @ThingworxServiceParameter(name = "documents", description = "Documents to index", baseType = "INFOTABLE") InfoTable documents) throws Exception {
-        double timeout = 60000.0D;
-        if (this._timeout > 0) {
-            timeout = (double) this._timeout;
-        }
-
-        boolean ignoreSSLErrors = false;
-        boolean useNTLM = false;
-        boolean useProxy = false;
-        CloseableHttpClient client = HttpUtilities.createHttpClient(this._username, this._password, ignoreSSLErrors, timeout, useNTLM, "", "", useProxy, "", -1, "");
-        SolrClient server = new HttpSolrClient.Builder(this.buildBaseURL(coreName).toString()).withHttpClient(client).build();
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Result",
+            baseType = "INFOTABLE"
+    )
+    public InfoTable IndexMultipleDocuments(@ThingworxServiceParameter(name = "coreName", description = "Core/index name", baseType = "STRING") String coreName,
+                                            @ThingworxServiceParameter(name = "documents", description = "Documents to index", baseType = "INFOTABLE") InfoTable documents,
+                                            @ThingworxServiceParameter(name = "batchSize", description = "Maximum number of documents sent per request", baseType = "NUMBER", aspects = {"defaultValue:1000"}) Double batchSize,
+                                            @ThingworxServiceParameter(name = "maxBatchSizeKB", description = "Maximum estimated size (KB) of the documents sent per request", baseType = "NUMBER", aspects = {"defaultValue:4096"}) Double maxBatchSizeKB,
+                                            @ThingworxServiceParameter(name = "commitWithin", description = "Time (milliseconds) within which Solr commits the documents, 0 to soft commit once all are sent", baseType = "NUMBER", aspects = {"defaultValue:1000"}) Double commitWithin) throws Exception {
+        SolrClient server = this.getSolrClient(coreName);
+        BulkIndexer indexer = new BulkIndexer(server,
+                batchSize != null ? batchSize.intValue() : 1000,
+                maxBatchSizeKB != null ? 1024L * maxBatchSizeKB.longValue() : 4096L * 1024L,
+                commitWithin != null ? commitWithin.intValue() : 1000);
+
+        ServiceMetrics.Request metrics = this._metrics.start("IndexMultipleDocuments", coreName);
+        InfoTable result;
+        try {
+            Iterator<?> valueCollectionIterator = documents.getRows().iterator();
 
-        Collection<SolrInputDocument> docs = new ArrayList();
-        Iterator valueCollectionIterator = documents.getRows().iterator();
+            while (valueCollectionIterator.hasNext()) {
+                ValueCollection row = (ValueCollection) valueCollectionIterator.next();
+                SolrInputDocument doc = new SolrInputDocument();
+                Iterator<?> stringIterator = documents.getDataShape().getFields().keySet().iterator();
 
-        while (valueCollectionIterator.hasNext()) {
-            ValueCollection row = (ValueCollection) valueCollectionIterator.next();
-            SolrInputDocument doc = new SolrInputDocument();
-            Iterator stringIterator = documents.getDataShape().getFields().keySet().iterator();
+                while (stringIterator.hasNext()) {
+                    String fieldName = (String) stringIterator.next();
+                    doc.addField(fieldName, row.getValue(fieldName));
+                }
 
-            while (stringIterator.hasNext()) {
-                String fieldName = (String) stringIterator.next();
-                doc.addField(fieldName, row.getValue(fieldName));
+                indexer.add(doc);
             }
 
-            docs.add(doc);
+            result = indexer.finish();
+        } catch (Exception exceptionError) {
+            metrics.failed();
+            _logger.error("Error Indexing Documents: " + exceptionError.getMessage());
+            throw new Exception("Error Indexing Documents: " + exceptionError.getMessage(), exceptionError);
+        } finally {
+            // the batches sent before a failure may still be committed
+            this.invalidateCachedResults(coreName, commitWithin != null ? commitWithin.longValue() : 1000L);
+            metrics.rows(indexer.getIndexedCount());
+            if (indexer.getFailedCount() > 0) {
+                metrics.failed();
+            }
+            this.finishMetrics(metrics);
         }
-
-        server.add(docs);
-        server.commit();
-        return new InfoTable();
+        _logger.info("indexed " + indexer.getIndexedCount() + " documents, " + indexer.getFailedCount() + " failed");
+        return result;
     }
 
     @ThingworxServiceDefinition(
             name = "GetDatashape",
-            description = "Get the datashape"
+            description = "Updates a data shape from the schema of a core, changing only the fields that differ, and returns it"
     )
     @ThingworxServiceResult(
             name = "result",
@@ -851,83 +2418,464 @@ public class SolrThing extends Thing {
         if (ds == null) {
             throw new Exception("Unable to process queries without a field definition");
         } else {
-            DataShapeDefinition dsDef = new DataShapeDefinition();
-
-            double timeout = 60000.0D;
-            if (this._timeout > 0) {
-                timeout = (double) this._timeout;
-            }
-
-            boolean ignoreSSLErrors = false;
-            boolean useNTLM = false;
-            boolean useProxy = false;
-            CloseableHttpClient client = HttpUtilities.createHttpClient(this._username, this._password, ignoreSSLErrors, timeout, useNTLM, "", "", useProxy, "", -1, "");
-            SolrClient server = new HttpSolrClient.Builder(this.buildBaseURL(coreName).toString()).withHttpClient(client).build();
-
-
-            //SS
-            SolrQuery query = new SolrQuery();
-            query.add(CommonParams.QT, "/schema/fields");
-            QueryResponse response = server.query(query);
-            NamedList responseHeader = response.getResponseHeader();
-            ArrayList<SimpleOrderedMap> fields = (ArrayList<SimpleOrderedMap>) response.getResponse().get("fields");
-            for (SimpleOrderedMap field : fields) {
-                Object fieldName = field.get("name");
-                Object fieldType = field.get("type");
-                Object isIndexed = field.get("indexed");
-                Object isStored = field.get("stored");
-
-                if (dsDef.hasField(field.get("name").toString())) {
-                    //(dsDef.getFieldDefinition(fieldName)).setDescription("solr-schema");
-                    //(dsDef.getFieldDefinition(fieldName)).setBaseType(BaseTypes.fromFriendlyName(fieldInfo.getType()));
-                    //update base type if it changes
-                } else {
-                    dsDef.addFieldDefinition(new FieldDefinition(fieldName.toString(), "solr-schema", convertBaseType(fieldType.toString())));
-                    //add the data field to datashape definition
+            int[] changes = this.syncDatashape(coreName, ds);
+            _logger.info("Datashape " + dataShape + " synchronized with core " + coreName + ": " + changes[0] + " fields added, " + changes[1] + " updated, "
+                    + changes[2] + " removed");
+            return InfoTableInstanceFactory.createInfoTableFromDataShape(ds.getDataShape());
+        }
+    }
+
+    @ThingworxServiceDefinition(
+            name = "SyncDatashapes",
+            description = "Updates several data shapes from the schemas of their cores, changing only the fields that differ"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Result",
+            baseType = "INFOTABLE"
+    )
+    public InfoTable SyncDatashapes(@ThingworxServiceParameter(name = "mappings", description = "Data shapes to update, with the fields coreName and dataShape", baseType = "INFOTABLE") InfoTable mappings) throws Exception {
+        InfoTable it = new InfoTable();
+        it.addField(new FieldDefinition("coreName", BaseTypes.STRING));
+        it.addField(new FieldDefinition("dataShape", BaseTypes.STRING));
+        it.addField(new FieldDefinition("added", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("updated", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("removed", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("error", BaseTypes.STRING));
+        for (ValueCollection mapping : mappings.getRows()) {
+            String coreName = mapping.getStringValue("coreName");
+            String dataShape = mapping.getStringValue("dataShape");
+            ValueCollection values = new ValueCollection();
+            values.put("coreName", new StringPrimitive(coreName));
+            values.put("dataShape", new StringPrimitive(dataShape));
+            try {
+                DataShape ds = (DataShape) EntityUtilities.findEntity(dataShape, ThingworxRelationshipTypes.DataShape);
+                if (ds == null) {
+                    throw new Exception("Datashape does not exist");
                 }
+                int[] changes = this.syncDatashape(coreName, ds);
+                values.put("added", new NumberPrimitive((Number) changes[0]));
+                values.put("updated", new NumberPrimitive((Number) changes[1]));
+                values.put("removed", new NumberPrimitive((Number) changes[2]));
+            } catch (Exception exceptionError) {
+                // one core failing does not prevent the others from being synchronized
+                _logger.warn("Unable to synchronize datashape " + dataShape + " with core " + coreName + ": " + exceptionError.getMessage());
+                values.put("error", new StringPrimitive(exceptionError.getMessage()));
+            }
+            it.addRow(values);
+        }
+        return it;
+    }
+
+    @ThingworxServiceDefinition(
+            name = "FlushSchemaCache",
+            description = "Forgets the cached schema of a core, or of all cores, so that it is read again on next use"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Result",
+            baseType = "NOTHING"
+    )
+    public void FlushSchemaCache(@ThingworxServiceParameter(name = "coreName", description = "Core/index name, empty for all cores", baseType = "STRING") String coreName) {
+        this._schemaCache.invalidate(coreName);
+    }
+
+    @ThingworxServiceDefinition(
+            name = "GetIndexingQueueStatus",
+            description = "Returns the depth and the counters of the asynchronous indexing queue"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Result",
+            baseType = "INFOTABLE"
+    )
+    public InfoTable GetIndexingQueueStatus() throws Exception {
+        InfoTable it = new InfoTable();
+        it.addField(new FieldDefinition("enabled", BaseTypes.BOOLEAN));
+        it.addField(new FieldDefinition("queueDepth", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("spilled", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("enqueued", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("indexed", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("failed", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("dropped", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("lastFlushLatency", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("lastFlushSize", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("lastFlushTime", BaseTypes.DATETIME));
+
+        AsyncIndexer asyncIndexer = this._asyncIndexer;
+        ValueCollection values = new ValueCollection();
+        values.put("enabled", new BooleanPrimitive(asyncIndexer != null));
+        if (asyncIndexer != null) {
+            values.put("queueDepth", new NumberPrimitive((Number) asyncIndexer.getQueueDepth()));
+            values.put("spilled", new NumberPrimitive((Number) asyncIndexer.getSpilledCount()));
+            values.put("enqueued", new NumberPrimitive((Number) asyncIndexer.getEnqueuedCount()));
+            values.put("indexed", new NumberPrimitive((Number) asyncIndexer.getIndexedCount()));
+            values.put("failed", new NumberPrimitive((Number) asyncIndexer.getFailedCount()));
+            values.put("dropped", new NumberPrimitive((Number) asyncIndexer.getDroppedCount()));
+            values.put("lastFlushLatency", new NumberPrimitive((Number) asyncIndexer.getLastFlushLatency()));
+            values.put("lastFlushSize", new NumberPrimitive((Number) asyncIndexer.getLastFlushSize()));
+            if (asyncIndexer.getLastFlushTime() > 0) {
+                values.put("lastFlushTime", new DatetimePrimitive(new DateTime(asyncIndexer.getLastFlushTime())));
+            }
+        }
+        it.addRow(values);
+        return it;
+    }
+
+    @ThingworxServiceDefinition(
+            name = "FlushIndexingQueue",
+            description = "Sends every document waiting in the asynchronous indexing queue or its spill file, commits them if commitWithin is disabled, and returns their number"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Result",
+            baseType = "NUMBER"
+    )
+    public Double FlushIndexingQueue() throws Exception {
+        AsyncIndexer asyncIndexer = this._asyncIndexer;
+        return asyncIndexer != null ? (double) asyncIndexer.flush(this._timeout > 0 ? this._timeout : 60000) : 0.0D;
+    }
+
+    @ThingworxServiceDefinition(
+            name = "GetQueryCacheStatistics",
+            description = "Returns the size and the hit/miss counters of the query result cache"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Result",
+            baseType = "INFOTABLE"
+    )
+    public InfoTable GetQueryCacheStatistics() throws Exception {
+        InfoTable it = new InfoTable();
+        it.addField(new FieldDefinition("enabled", BaseTypes.BOOLEAN));
+        it.addField(new FieldDefinition("entries", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("sizeBytes", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("hits", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("misses", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("hitRate", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("evictions", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("expirations", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("invalidations", BaseTypes.NUMBER));
+
+        QueryResultCache queryCache = this._queryCache;
+        ValueCollection values = new ValueCollection();
+        values.put("enabled", new BooleanPrimitive(queryCache != null));
+        if (queryCache != null) {
+            long lookups = queryCache.getHits() + queryCache.getMisses();
+            values.put("entries", new NumberPrimitive((Number) queryCache.getEntryCount()));
+            values.put("sizeBytes", new NumberPrimitive((Number) queryCache.getSizeBytes()));
+            values.put("hits", new NumberPrimitive((Number) queryCache.getHits()));
+            values.put("misses", new NumberPrimitive((Number) queryCache.getMisses()));
+            values.put("hitRate", new NumberPrimitive((Number) (lookups > 0 ? (double) queryCache.getHits() / lookups : 0.0D)));
+            values.put("evictions", new NumberPrimitive((Number) queryCache.getEvictions()));
+            values.put("expirations", new NumberPrimitive((Number) queryCache.getExpirations()));
+            values.put("invalidations", new NumberPrimitive((Number) queryCache.getInvalidations()));
+        }
+        it.addRow(values);
+        return it;
+    }
+
+    /*
+     * Request metrics per service and core since the Thing started or since ResetMetrics. Latencies are in
+     * milliseconds and split into qtime (time spent searching inside Solr), conversion (building the InfoTable) and
+     * network (everything else: transfer, response parsing, HTTP overhead). The qtime and network columns are only
+     * filled for the services receiving a Solr query response, bytes are the compressed bytes received.
+     */
+
+    @ThingworxServiceDefinition(
+            name = "GetMetrics",
+            description = "Returns the request counts and latency percentiles of the services, per service and per core"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Result",
+            baseType = "INFOTABLE"
+    )
+    public InfoTable GetMetrics(@ThingworxServiceParameter(name = "service", description = "Only the metrics of this service (optional)", baseType = "STRING") String service,
+                                @ThingworxServiceParameter(name = "coreName", description = "Only the metrics of this core/index (optional)", baseType = "STRING") String coreName) throws Exception {
+        return this._metrics.toInfoTable(service, coreName);
+    }
+
+    @ThingworxServiceDefinition(
+            name = "GetConcurrencyLimits",
+            description = "Returns the current concurrency limit, the requests in flight and waiting, and the rejected requests of every core"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Result",
+            baseType = "INFOTABLE"
+    )
+    public InfoTable GetConcurrencyLimits() throws Exception {
+        InfoTable it = new InfoTable();
+        it.addField(new FieldDefinition("coreName", BaseTypes.STRING));
+        it.addField(new FieldDefinition("limit", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("inFlight", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("waiting", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("maxInFlight", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("rejected", BaseTypes.NUMBER));
+        for (ConcurrencyLimiter limiter : this._concurrencyLimiters.values()) {
+            ValueCollection values = new ValueCollection();
+            values.put("coreName", new StringPrimitive(limiter.getCoreName()));
+            values.put("limit", new NumberPrimitive((Number) limiter.getLimit()));
+            values.put("inFlight", new NumberPrimitive((Number) limiter.getInFlight()));
+            values.put("waiting", new NumberPrimitive((Number) limiter.getWaiting()));
+            values.put("maxInFlight", new NumberPrimitive((Number) limiter.getMaxInFlight()));
+            values.put("rejected", new NumberPrimitive((Number) limiter.getRejected()));
+            it.addRow(values);
+        }
+        return it;
+    }
+
+    @ThingworxServiceDefinition(
+            name = "GetCircuitBreakers",
+            description = "Returns the state, the failure and slow call rates, and the rejected calls of the circuit breaker of every core"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Result",
+            baseType = "INFOTABLE"
+    )
+    public InfoTable GetCircuitBreakers() throws Exception {
+        InfoTable it = new InfoTable();
+        it.addField(new FieldDefinition("coreName", BaseTypes.STRING));
+        it.addField(new FieldDefinition("state", BaseTypes.STRING));
+        it.addField(new FieldDefinition("calls", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("failureRate", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("slowCallRate", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("openings", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("rejected", BaseTypes.NUMBER));
+        for (CircuitBreaker breaker : this._circuitBreakers.values()) {
+            ValueCollection values = new ValueCollection();
+            values.put("coreName", new StringPrimitive(breaker.getCoreName()));
+            values.put("state", new StringPrimitive(breaker.getState()));
+            values.put("calls", new NumberPrimitive((Number) breaker.getCalls()));
+            values.put("failureRate", new NumberPrimitive((Number) breaker.getFailureRate()));
+            values.put("slowCallRate", new NumberPrimitive((Number) breaker.getSlowCallRate()));
+            values.put("openings", new NumberPrimitive((Number) breaker.getOpenings()));
+            values.put("rejected", new NumberPrimitive((Number) breaker.getRejected()));
+            it.addRow(values);
+        }
+        return it;
+    }
+
+    @ThingworxServiceDefinition(
+            name = "GetHedgingStatistics",
+            description = "Returns the number of hedged queries, how often the hedge answered first, and the current hedge delay"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Result",
+            baseType = "INFOTABLE"
+    )
+    public InfoTable GetHedgingStatistics() throws Exception {
+        InfoTable it = new InfoTable();
+        it.addField(new FieldDefinition("enabled", BaseTypes.BOOLEAN));
+        it.addField(new FieldDefinition("reads", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("hedged", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("hedgeRate", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("hedgeWins", BaseTypes.NUMBER));
+        it.addField(new FieldDefinition("hedgeDelay", BaseTypes.NUMBER));
+
+        RequestHedger hedger = this._clientRegistry != null ? this._clientRegistry.getHedger() : null;
+        ValueCollection values = new ValueCollection();
+        values.put("enabled", new BooleanPrimitive(hedger != null));
+        if (hedger != null) {
+            values.put("reads", new NumberPrimitive((Number) hedger.getReads()));
+            values.put("hedged", new NumberPrimitive((Number) hedger.getHedged()));
+            values.put("hedgeRate", new NumberPrimitive((Number) (hedger.getReads() > 0 ? (double) hedger.getHedged() / hedger.getReads() : 0.0D)));
+            values.put("hedgeWins", new NumberPrimitive((Number) hedger.getHedgeWins()));
+            values.put("hedgeDelay", new NumberPrimitive((Number) hedger.getHedgeDelay()));
+        }
+        it.addRow(values);
+        return it;
+    }
+
+    @ThingworxServiceDefinition(
+            name = "ResetMetrics",
+            description = "Clears the request metrics of all services"
+    )
+    public void ResetMetrics() throws Exception {
+        this._metrics.reset();
+        this.publishMetrics(true);
+    }
+
+    @ThingworxServiceDefinition(
+            name = "FlushQueryCache",
+            description = "Removes the cached query results of a core, or of all cores if no core is specified"
+    )
+    public void FlushQueryCache(@ThingworxServiceParameter(name = "coreName", description = "Core/index name (optional)", baseType = "STRING") String coreName) throws Exception {
+        this.invalidateCachedResults(coreName);
+    }
+
+    /*
+     * Compares the response formats Solr can write (javabin, XML, JSON and Smile), uncompressed and gzip/deflate
+     * compressed, on the results of a real query. Run it with a query returning documents representative of the
+     * core, a "compressed" column set to false means Solr did not compress the response for that encoding.
+     */
+
+    @ThingworxServiceDefinition(
+            name = "BenchmarkWireFormats",
+            description = "Measures the bytes on the wire, transfer time and parse time of a query response for every response format and compression"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "One row per format and encoding with the average bytes, uncompressedBytes, transferTime and parseTime (milliseconds)",
+            baseType = "INFOTABLE"
+    )
+    public InfoTable BenchmarkWireFormats(@ThingworxServiceParameter(name = "coreName", description = "Core/index name", baseType = "STRING") String coreName,
+                                          @ThingworxServiceParameter(name = "query", description = "Solr query string", baseType = "STRING", aspects = {"defaultValue:*:*"}) String query,
+                                          @ThingworxServiceParameter(name = "rows", description = "Documents per response", baseType = "NUMBER", aspects = {"defaultValue:100"}) Double rows,
+                                          @ThingworxServiceParameter(name = "iterations", description = "Measured requests per format and encoding", baseType = "NUMBER", aspects = {"defaultValue:5"}) Double iterations)
+            throws Exception {
+        SolrClientRegistry registry = this.getClientRegistry();
+        String coreURL = registry.getCoreURL(coreName);
+        if (coreURL == null) {
+            throw new Exception("BenchmarkWireFormats is not available in SolrCloud connection mode");
+        }
+
+        try (CloseableHttpClient httpClient = registry.createUncompressedHttpClient()) {
+            WireFormatBenchmark benchmark = new WireFormatBenchmark(httpClient, coreURL);
+            return benchmark.run(query != null ? query : "*:*", rows != null ? rows.intValue() : 100, iterations != null ? iterations.intValue() : 5);
+        }
+    }
+
 
-                System.out.println(field.toString());
+    protected static List<SolrQuery.SortClause> buildSortClauses(JSONObject sortExpression) throws Exception {
+        List<SolrQuery.SortClause> sortClauses = new ArrayList<>();
+        if (sortExpression != null) {
+            Query sortQuery = new Query(sortExpression);
+            SortCollection sorters = (SortCollection) sortQuery.getSorters();
+            for (Object sorterObject : sorters.getSorters()) {
+                ISort sorter = (ISort) sorterObject;
+                sortClauses.add(SolrQuery.SortClause.create(sorter.getFieldName(), sorter.isAscending() ? ORDER.asc : ORDER.desc));
             }
+        }
+        return sortClauses;
+    }
 
-            long timeStart = System.currentTimeMillis();
+    protected TupleStream createExportStream(String coreName, String query, JSONObject sortExpression, String filterQuery, List<String> fieldNames) throws Exception {
+        List<String> sorts = new ArrayList<>();
+        for (SolrQuery.SortClause sortClause : buildSortClauses(sortExpression)) {
+            sorts.add(sortClause.getItem() + " " + sortClause.getOrder());
+        }
+        if (sorts.isEmpty()) {
+            sorts.add(this.getUniqueKey(coreName) + " asc");
+        }
 
-            ds.setFields(dsDef.getFields());
-            InfoTable it = InfoTableInstanceFactory.createInfoTableFromDataShape(ds.getDataShape());
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set(CommonParams.QT, "/export");
+        params.set(CommonParams.Q, query);
+        params.set(CommonParams.FL, String.join(",", fieldNames));
+        params.set(CommonParams.SORT, String.join(",", sorts));
+        if (filterQuery != null && filterQuery.length() > 0) {
+            params.set(CommonParams.FQ, filterQuery);
+        }
+        return this.getClientRegistry().createStream(coreName, params);
+    }
 
-            _logger.info("query took " + (System.currentTimeMillis() - timeStart) + " ms");
-            return it;
+    protected static Tuple readTuple(TupleStream stream) throws Exception {
+        Tuple tuple = stream.read();
+        if (tuple.EXCEPTION) {
+            throw new Exception("Error Executing Export: " + tuple.getException());
+        }
+        return tuple;
+    }
+
+    protected static String toCsvValue(Object value) {
+        if (value == null) {
+            return "";
+        }
+        String text = value instanceof Collection ? new JSONArray(new ArrayList<Object>((Collection<?>) value)).toString() : value.toString();
+        if (text.indexOf(',') >= 0 || text.indexOf('"') >= 0 || text.indexOf('\n') >= 0 || text.indexOf('\r') >= 0) {
+            return '"' + text.replace("\"", "\"\"") + '"';
+        }
+        return text;
+    }
+
+    /**
+     * Sets the highlighting parameters of a query from the Highlighting configuration. Without field list, the STRING
+     * fields of the data shape are highlighted rather than every field of the schema, and nothing is highlighted when
+     * the data shape has none.
+     */
+    protected void setHighlighting(SolrQuery solrQuery, String highlightFields, RowMappingPlan plan) {
+        String fields = highlightFields != null && highlightFields.trim().length() > 0 ? highlightFields : this._highlightFields;
+        if (fields == null || fields.trim().length() == 0) {
+            fields = String.join(",", plan.getFieldNames(BaseTypes.STRING));
         }
+        if (fields.trim().length() == 0) {
+            return;
+        }
+        solrQuery.setHighlight(true);
+        solrQuery.set(HighlightParams.FIELDS, fields.trim());
+        solrQuery.set(HighlightParams.METHOD, this._highlightMethod);
+        solrQuery.setHighlightFragsize(this._highlightFragmentSize);
+        solrQuery.setHighlightSnippets(Math.max(1, this._highlightSnippets));
+        // hl.tag.* for the unified and fastVector highlighters, hl.simple.* for the original one
+        solrQuery.set(HighlightParams.TAG_PRE, this._highlightPreTag);
+        solrQuery.set(HighlightParams.TAG_POST, this._highlightPostTag);
+        solrQuery.setHighlightSimplePre(this._highlightPreTag);
+        solrQuery.setHighlightSimplePost(this._highlightPostTag);
     }
 
+    /**
+     * Returns the uniqueKey field of a core, as declared in its schema. Falls back to "id" if the schema cannot be read.
+     */
+    protected String getUniqueKey(String coreName) throws Exception {
+        String uniqueKey = null;
+        try {
+            uniqueKey = this._schemaCache.get(coreName, this.getSolrClient(coreName)).getUniqueKey();
+        } catch (Exception exceptionError) {
+            _logger.warn("Unable to read the uniqueKey of core " + coreName + ", assuming id: " + exceptionError.getMessage());
+        }
+        return uniqueKey == null || uniqueKey.length() == 0 ? "id" : uniqueKey;
+    }
 
-    protected BaseTypes convertBaseType(String solrBaseType) {
-        switch (solrBaseType) {
-            case "boolean":
-                return BaseTypes.BOOLEAN;
-            case "pdouble":
-                return BaseTypes.NUMBER;
-            case "pfloat":
-                return BaseTypes.NUMBER;
-            case "plong":
-                return BaseTypes.NUMBER;
-            case "string":
-                return BaseTypes.STRING;
-            case "pdate":
-                return BaseTypes.DATETIME;
-            case "text_general":
-                return BaseTypes.STRING;
-            default:
-                return BaseTypes.STRING;
+    /**
+     * Brings the fields of a DataShape in line with the schema of a core, changing only what differs: fields missing
+     * from the DataShape are added, the base type of the fields it got from the schema is updated, and those fields
+     * are removed once the schema no longer has them. Fields added to the DataShape by other means are left alone,
+     * and the DataShape is not saved at all when nothing changed.
+     *
+     * @return the number of fields added, updated and removed
+     */
+    protected int[] syncDatashape(String coreName, DataShape ds) throws Exception {
+        SchemaCache.CoreSchema schema = this._schemaCache.get(coreName, this.getSolrClient(coreName));
+        FieldDefinitionCollection fields = ds.getFields().clone();
+        int[] changes = new int[3];
+        for (FieldDefinition field : new ArrayList<>(fields.values())) {
+            if (!SCHEMA_FIELD.equals(field.getDescription())) {
+                continue;
+            }
+            SchemaCache.SchemaField schemaField = schema.getField(field.getName());
+            if (schemaField == null) {
+                fields.remove(field.getName());
+                changes[2]++;
+            } else if (field.getBaseType() != schemaField.baseType) {
+                FieldDefinition updated = new FieldDefinition(field.getName(), field.getDescription(), schemaField.baseType, field.getAspects());
+                updated.setOrdinal(field.getOrdinal());
+                fields.addFieldDefinition(updated);
+                changes[1]++;
+            }
+        }
+        for (SchemaCache.SchemaField schemaField : schema.getFields()) {
+            if (fields.getFieldDefinition(schemaField.name) == null) {
+                fields.addFieldDefinition(new FieldDefinition(schemaField.name, SCHEMA_FIELD, schemaField.baseType));
+                changes[0]++;
+            }
+        }
+        if (changes[0] + changes[1] + changes[2] > 0) {
+            ds.setFields(fields);
         }
+        return changes;
     }
 
     protected String addParametersToURL(JSONObject values) throws Exception {
         StringBuffer sbParams = new StringBuffer();
-        Iterator itr = values.keys();
+        Iterator<String> itr = values.keys();
 
         try {
             while (itr.hasNext()) {
-                String strKey = (String) itr.next();
+                String strKey = itr.next();
                 String paramValue = (String) values.get(strKey);
                 sbParams.append("&");
                 sbParams.append(strKey);
@@ -942,8 +2890,12 @@ public class SolrThing extends Thing {
     }
 
     protected StringBuffer buildBaseURL(String core) {
+        return buildBaseURL(this._useSSL, this._serverName, this._serverPort, core);
+    }
+
+    protected static StringBuffer buildBaseURL(boolean useSSL, String serverName, int serverPort, String core) {
         StringBuffer sbURL = new StringBuffer();
-        if (this._useSSL) {
+        if (useSSL) {
             sbURL.append("https");
         } else {
             sbURL.append("http");
@@ -951,9 +2903,9 @@ public class SolrThing extends Thing {
         sbURL.append(':');
         sbURL.append("/");
         sbURL.append("/");
-        sbURL.append(this._serverName);
+        sbURL.append(serverName);
         sbURL.append(':');
-        sbURL.append(this._serverPort);
+        sbURL.append(serverPort);
         sbURL.append("/");
         sbURL.append("solr");
         if (core != null && core.length() > 0) {
@@ -971,8 +2923,89 @@ public class SolrThing extends Thing {
         public static final String UserName = "userName";
         public static final String Password = "password";
         public static final String Timeout = "timeout";
+        public static final String MaxConnectionsTotal = "maxConnectionsTotal";
+        public static final String MaxConnectionsPerRoute = "maxConnectionsPerRoute";
+        public static final String IdleConnectionTimeout = "idleConnectionTimeout";
+        public static final String ConnectionMode = "connectionMode";
+        public static final String ZkHost = "zkHost";
+        public static final String ZkChroot = "zkChroot";
+        public static final String LoadBalancingPolicy = "loadBalancingPolicy";
+        public static final String HealthCheckInterval = "healthCheckInterval";
+        public static final String HedgedReads = "hedgedReads";
+        public static final String HedgePercentile = "hedgePercentile";
+        public static final String MaxHedgeRate = "maxHedgeRate";
+        public static final String WireFormat = "wireFormat";
+        public static final String ResponseCompression = "responseCompression";
+        public static final String RequestCompression = "requestCompression";
+        public static final String FederatedQueryThreads = "federatedQueryThreads";
+        public static final String BatchQueryThreads = "batchQueryThreads";
+        public static final String Servers = "Servers";
+        public static final String IsMaster = "isMaster";
+        public static final String QueryCache = "QueryCache";
+        public static final String Enabled = "enabled";
+        public static final String EvictionPolicy = "evictionPolicy";
+        public static final String MaxEntries = "maxEntries";
+        public static final String MaxSizeKB = "maxSizeKB";
+        public static final String DefaultTTL = "defaultTTL";
+        public static final String CountTTL = "countTTL";
+        public static final String QueryCacheCoreTTL = "QueryCacheCoreTTL";
+        public static final String CoreName = "coreName";
+        public static final String TTL = "ttl";
+        public static final String AsyncIndexing = "AsyncIndexing";
+        public static final String QueueCapacity = "queueCapacity";
+        public static final String BatchSize = "batchSize";
+        public static final String FlushInterval = "flushInterval";
+        public static final String CommitWithin = "commitWithin";
+        public static final String BackpressurePolicy = "backpressurePolicy";
+        public static final String EnqueueTimeout = "enqueueTimeout";
+        public static final String Metrics = "Metrics";
+        public static final String PublishInterval = "publishInterval";
+        public static final String SlowQueryLog = "SlowQueryLog";
+        public static final String ConcurrencyLimit = "ConcurrencyLimit";
+        public static final String MaxConcurrency = "maxConcurrency";
+        public static final String MinConcurrency = "minConcurrency";
+        public static final String Adaptive = "adaptive";
+        public static final String TargetLatency = "targetLatency";
+        public static final String QueueTimeout = "queueTimeout";
+        public static final String ConnectTimeout = "connectTimeout";
+        public static final String ConnectionRequestTimeout = "connectionRequestTimeout";
+        public static final String RequestDeadline = "requestDeadline";
+        public static final String Resilience = "Resilience";
+        public static final String CircuitBreaker = "circuitBreaker";
+        public static final String FailureRateThreshold = "failureRateThreshold";
+        public static final String SlowCallThreshold = "slowCallThreshold";
+        public static final String SlowCallRateThreshold = "slowCallRateThreshold";
+        public static final String WindowSize = "windowSize";
+        public static final String MinimumCalls = "minimumCalls";
+        public static final String OpenDuration = "openDuration";
+        public static final String HalfOpenProbes = "halfOpenProbes";
+        public static final String MaxRetries = "maxRetries";
+        public static final String RetryBackoff = "retryBackoff";
+        public static final String MaxRetryBackoff = "maxRetryBackoff";
+        public static final String Threshold = "threshold";
+        public static final String SampleRate = "sampleRate";
+        public static final String SchemaCache = "SchemaCache";
+        public static final String RefreshInterval = "refreshInterval";
+        public static final String Suggest = "Suggest";
+        public static final String RequestHandler = "requestHandler";
+        public static final String Highlighting = "Highlighting";
+        public static final String Fields = "fields";
+        public static final String Method = "method";
+        public static final String FragmentSize = "fragmentSize";
+        public static final String Snippets = "snippets";
+        public static final String PreTag = "preTag";
+        public static final String PostTag = "postTag";
 
         protected ConfigConstants() {
         }
     }
+
+    protected static class ConnectionModes {
+        public static final String Standalone = "Standalone";
+        public static final String LoadBalanced = "LoadBalanced";
+        public static final String SolrCloud = "SolrCloud";
+
+        protected ConnectionModes() {
+        }
+    }
 }
\ No newline at end of file
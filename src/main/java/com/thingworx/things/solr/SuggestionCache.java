@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the suggestions returned by the Solr suggester, as one prefix trie per core and dictionary.
+ * <p>
+ * A prefix is answered from the trie when it was asked before, or when a shorter prefix got fewer suggestions than
+ * it asked for: that answer then held every suggestion, and the suggestions of the longer prefix are those of its
+ * terms starting with it. The latter only applies to prefix dictionaries, where every term starts with the prefix
+ * it was suggested for; infix dictionaries are only answered for prefixes asked before.
+ * <p>
+ * Entries expire after the TTL, and the least recently used ones are evicted above maxEntries. Writes to a core
+ * invalidate its entries, as the dictionary may be rebuilt on commit; suggestions asked while a write happened, or
+ * before the written documents are searchable, are not cached (see {@link CacheGeneration}).
+ */
+public class SuggestionCache {
+    private final int _maxEntries;
+    private final long _ttl;
+    private final Map<String, Node> _tries = new HashMap<>();
+    // access ordered, so that iteration starts with the least recently used entry
+    private final LinkedHashMap<Node, Boolean> _entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CacheGeneration> _generations = new HashMap<>();
+
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+
+    /**
+     * @param maxEntries maximum number of cached prefixes, over all cores and dictionaries
+     * @param ttl        time to live (milliseconds) of the suggestions
+     */
+    public SuggestionCache(int maxEntries, long ttl) {
+        this._maxEntries = maxEntries;
+        this._ttl = ttl;
+    }
+
+    /**
+     * Returns the first count suggestions for a prefix, or null if they have to be asked to Solr.
+     */
+    public synchronized List<Suggestion> get(String coreName, String dictionary, String prefix, int count) {
+        Node node = this._tries.get(key(coreName, dictionary));
+        long now = System.currentTimeMillis();
+        for (int depth = 0; node != null; depth++) {
+            if (node.suggestions != null && now >= node.expires) {
+                this.remove(node);
+            }
+            if (node.suggestions != null) {
+                if (depth == prefix.length() && (node.complete || node.suggestions.size() >= count)) {
+                    this._entries.get(node);
+                    this._hits.incrementAndGet();
+                    return head(node.suggestions, count);
+                }
+                if (node.complete && node.prefixDictionary) {
+                    this._entries.get(node);
+                    this._hits.incrementAndGet();
+                    List<Suggestion> suggestions = new ArrayList<>();
+                    for (Suggestion suggestion : node.suggestions) {
+                        if (suggestion.term.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                            suggestions.add(suggestion);
+                        }
+                    }
+                    return head(suggestions, count);
+                }
+            }
+            node = depth < prefix.length() ? node.children.get(prefix.charAt(depth)) : null;
+        }
+        this._misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Returns the write generation of a core, to be taken before asking Solr and passed to {@link #put}.
+     */
+    public synchronized long getGeneration(String coreName) {
+        return this.generation(coreName).current();
+    }
+
+    /**
+     * @param count number of suggestions asked to Solr, fewer suggestions mean Solr returned them all
+     */
+    public synchronized void put(String coreName, String dictionary, String prefix, int count, List<Suggestion> suggestions, long generation) {
+        if (this._maxEntries <= 0 || !this.generation(coreName).accepts(generation)) {
+            return;
+        }
+        Node node = this._tries.computeIfAbsent(key(coreName, dictionary), trie -> new Node(null, (char) 0));
+        for (int i = 0; i < prefix.length(); i++) {
+            Node parent = node;
+            node = parent.children.computeIfAbsent(prefix.charAt(i), c -> new Node(parent, c));
+        }
+        node.suggestions = new ArrayList<>(suggestions);
+        node.complete = suggestions.size() < count;
+        node.prefixDictionary = true;
+        for (Suggestion suggestion : suggestions) {
+            node.prefixDictionary &= suggestion.term.regionMatches(true, 0, prefix, 0, prefix.length());
+        }
+        node.expires = System.currentTimeMillis() + this._ttl;
+        this._entries.put(node, Boolean.TRUE);
+
+        Iterator<Node> lru = this._entries.keySet().iterator();
+        while (this._entries.size() > this._maxEntries && lru.hasNext()) {
+            Node evicted = lru.next();
+            lru.remove();
+            this.clear(evicted);
+        }
+    }
+
+    /**
+     * Removes the suggestions of a core, or of all cores when the core is null or empty, and caches no suggestion of
+     * the core until the given delay is over.
+     *
+     * @param settleDelay time (milliseconds) until the written documents are searchable, e.g. their commitWithin
+     */
+    public synchronized void invalidate(String coreName, long settleDelay) {
+        if (coreName == null || coreName.length() == 0) {
+            this._generations.values().forEach(generation -> generation.advance(settleDelay));
+            this._tries.clear();
+            this._entries.clear();
+            return;
+        }
+        this.generation(coreName).advance(settleDelay);
+        List<Node> roots = new ArrayList<>();
+        Iterator<Map.Entry<String, Node>> tries = this._tries.entrySet().iterator();
+        while (tries.hasNext()) {
+            Map.Entry<String, Node> trie = tries.next();
+            if (trie.getKey().startsWith(coreName + '\u0000')) {
+                roots.add(trie.getValue());
+                tries.remove();
+            }
+        }
+        this._entries.keySet().removeIf(node -> roots.contains(node.root()));
+    }
+
+    private void remove(Node node) {
+        this._entries.remove(node);
+        this.clear(node);
+    }
+
+    /**
+     * Drops the suggestions of a node, and the nodes of the trie left without suggestions nor children.
+     */
+    private void clear(Node node) {
+        node.suggestions = null;
+        while (node.parent != null && node.suggestions == null && node.children.isEmpty()) {
+            node.parent.children.remove(node.character);
+            node = node.parent;
+        }
+    }
+
+    private CacheGeneration generation(String coreName) {
+        return this._generations.computeIfAbsent(coreName != null ? coreName : "", core -> new CacheGeneration());
+    }
+
+    private static String key(String coreName, String dictionary) {
+        return (coreName != null ? coreName : "") + '\u0000' + (dictionary != null ? dictionary : "");
+    }
+
+    private static List<Suggestion> head(List<Suggestion> suggestions, int count) {
+        return Collections.unmodifiableList(suggestions.size() > count ? suggestions.subList(0, count) : suggestions);
+    }
+
+    public synchronized int getSize() {
+        return this._entries.size();
+    }
+
+    public long getHits() {
+        return this._hits.get();
+    }
+
+    public long getMisses() {
+        return this._misses.get();
+    }
+
+    private static class Node {
+        final Node parent;
+        final char character;
+        final Map<Character, Node> children = new HashMap<>(4);
+        List<Suggestion> suggestions;
+        boolean complete;
+        boolean prefixDictionary;
+        long expires;
+
+        Node(Node parent, char character) {
+            this.parent = parent;
+            this.character = character;
+        }
+
+        Node root() {
+            Node node = this;
+            while (node.parent != null) {
+                node = node.parent;
+            }
+            return node;
+        }
+    }
+
+    public static class Suggestion {
+        public final String term;
+        public final long weight;
+        public final String payload;
+
+        public Suggestion(String term, long weight, String payload) {
+            this.term = term;
+            this.weight = weight;
+            this.payload = payload;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import org.apache.solr.client.solrj.ResponseParser;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.impl.BinaryRequestWriter;
+import org.apache.solr.client.solrj.impl.BinaryResponseParser;
+import org.apache.solr.client.solrj.impl.CloudSolrClient;
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.client.solrj.impl.XMLResponseParser;
+import org.apache.solr.client.solrj.request.RequestWriter;
+
+/**
+ * Serialization used between SolrJ and Solr, for both the request bodies (updates) and the responses.
+ * <p>
+ * Javabin is the compact binary format of Solr and the fastest to parse. XML is only useful when a proxy between
+ * the platform and Solr must be able to read the traffic. SolrJ 7.5 cannot parse JSON or Smile responses, those
+ * formats are only measured by {@link WireFormatBenchmark}.
+ * <p>
+ * The format does not apply to streamed queries (queryAndStreamResponse), whose response SolrJ always requests and
+ * parses as javabin, as it has no streaming parser for the other formats.
+ */
+public class WireFormat {
+    public static final String Javabin = "javabin";
+    public static final String XML = "XML";
+    public static final String JSON = "JSON";
+    public static final String Smile = "Smile";
+
+    protected WireFormat() {
+    }
+
+    public static boolean isSupported(String format) {
+        return Javabin.equalsIgnoreCase(format) || XML.equalsIgnoreCase(format);
+    }
+
+    public static ResponseParser createResponseParser(String format) {
+        return XML.equalsIgnoreCase(format) ? new XMLResponseParser() : new BinaryResponseParser();
+    }
+
+    public static RequestWriter createRequestWriter(String format) {
+        return XML.equalsIgnoreCase(format) ? new RequestWriter() : new BinaryRequestWriter();
+    }
+
+    /**
+     * Switches a client to the given format, for its requests and its responses.
+     */
+    public static void apply(SolrClient client, String format) {
+        if (client instanceof HttpSolrClient) {
+            ((HttpSolrClient) client).setParser(createResponseParser(format));
+            ((HttpSolrClient) client).setRequestWriter(createRequestWriter(format));
+        } else if (client instanceof CloudSolrClient) {
+            ((CloudSolrClient) client).setParser(createResponseParser(format));
+            ((CloudSolrClient) client).setRequestWriter(createRequestWriter(format));
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2018.  PTC Inc. and/or Its Subsidiary Companies. All Rights Reserved.
+ * Copyright for PTC software products is with PTC Inc. and its subsidiary companies (collectively “PTC”), and their respective licensors. This software is provided under written license agreement, contains valuable trade secrets and proprietary information, and is protected by the copyright laws of the United States and other countries. It may not be copied or distributed in any form or medium, disclosed to third parties, or used in any manner not provided for in the software license agreement except with written prior approval from PTC.
+ *
+ */
+
+package com.thingworx.things.solr;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.thingworx.metadata.FieldDefinition;
+import com.thingworx.types.BaseTypes;
+import com.thingworx.types.InfoTable;
+import com.thingworx.types.collections.ValueCollection;
+import com.thingworx.types.primitives.BooleanPrimitive;
+import com.thingworx.types.primitives.NumberPrimitive;
+import com.thingworx.types.primitives.StringPrimitive;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.apache.solr.client.solrj.impl.BinaryResponseParser;
+import org.apache.solr.client.solrj.impl.XMLResponseParser;
+import org.noggit.JSONParser;
+import org.noggit.ObjectBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Measures, for every response format Solr can write and with and without response compression, the bytes sent
+ * over the wire and the time needed to transfer and to parse the response of a query.
+ * <p>
+ * Responses are read with an HTTP client that does not decompress them, so that the compressed size is measured,
+ * and are then decompressed and parsed in memory, so that the parse time includes the decompression but not the
+ * network.
+ */
+public class WireFormatBenchmark {
+    private static final String[] FORMATS = {WireFormat.Javabin, WireFormat.XML, WireFormat.JSON, WireFormat.Smile};
+    private static final String[] ENCODINGS = {"identity", "gzip", "deflate"};
+
+    private final CloseableHttpClient _httpClient;
+    private final String _coreURL;
+    private final ObjectMapper _smileMapper = new ObjectMapper(new SmileFactory());
+
+    /**
+     * @param httpClient client that does not decompress the responses
+     * @param coreURL    URL of the benchmarked core
+     */
+    public WireFormatBenchmark(CloseableHttpClient httpClient, String coreURL) {
+        this._httpClient = httpClient;
+        this._coreURL = coreURL;
+    }
+
+    /**
+     * @return one row per format and encoding, with the average bytes, transfer and parse times (milliseconds)
+     */
+    public InfoTable run(String query, int rows, int iterations) throws Exception {
+        InfoTable result = new InfoTable();
+        result.addField(new FieldDefinition("format", BaseTypes.STRING));
+        result.addField(new FieldDefinition("encoding", BaseTypes.STRING));
+        result.addField(new FieldDefinition("compressed", BaseTypes.BOOLEAN));
+        result.addField(new FieldDefinition("bytes", BaseTypes.NUMBER));
+        result.addField(new FieldDefinition("uncompressedBytes", BaseTypes.NUMBER));
+        result.addField(new FieldDefinition("transferTime", BaseTypes.NUMBER));
+        result.addField(new FieldDefinition("parseTime", BaseTypes.NUMBER));
+
+        int count = iterations > 0 ? iterations : 1;
+        for (String format : FORMATS) {
+            for (String encoding : ENCODINGS) {
+                // one untimed round trip, so that the first format does not pay for the Solr caches warm up
+                this.measure(format, encoding, query, rows);
+                long bytes = 0;
+                long uncompressedBytes = 0;
+                long transferNanos = 0;
+                long parseNanos = 0;
+                boolean compressed = false;
+                for (int i = 0; i < count; i++) {
+                    Measure measure = this.measure(format, encoding, query, rows);
+                    bytes += measure.bytes;
+                    uncompressedBytes += measure.uncompressedBytes;
+                    transferNanos += measure.transferNanos;
+                    parseNanos += measure.parseNanos;
+                    compressed = measure.contentEncoding != null;
+                }
+
+                ValueCollection values = new ValueCollection();
+                values.put("format", new StringPrimitive(format));
+                values.put("encoding", new StringPrimitive(encoding));
+                values.put("compressed", new BooleanPrimitive(compressed));
+                values.put("bytes", new NumberPrimitive((Number) (bytes / count)));
+                values.put("uncompressedBytes", new NumberPrimitive((Number) (uncompressedBytes / count)));
+                values.put("transferTime", new NumberPrimitive((Number) (transferNanos / count / 1e6)));
+                values.put("parseTime", new NumberPrimitive((Number) (parseNanos / count / 1e6)));
+                result.addRow(values);
+            }
+        }
+        return result;
+    }
+
+    protected Measure measure(String format, String encoding, String query, int rows) throws Exception {
+        HttpGet get = new HttpGet(new URIBuilder(this._coreURL + "/select")
+                .addParameter("q", query)
+                .addParameter("rows", String.valueOf(rows))
+                .addParameter("wt", format.toLowerCase())
+                .build());
+        get.setHeader("Accept-Encoding", encoding);
+
+        Measure measure = new Measure();
+        long timeStart = System.nanoTime();
+        byte[] body;
+        try (CloseableHttpResponse response = this._httpClient.execute(get)) {
+            body = response.getEntity() != null ? EntityUtils.toByteArray(response.getEntity()) : new byte[0];
+            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+                throw new Exception("Solr returned " + response.getStatusLine() + " for format " + format);
+            }
+            Header contentEncoding = response.getFirstHeader("Content-Encoding");
+            measure.contentEncoding = contentEncoding != null && !"identity".equalsIgnoreCase(contentEncoding.getValue()) ? contentEncoding.getValue() : null;
+        }
+        measure.transferNanos = System.nanoTime() - timeStart;
+        measure.bytes = body.length;
+
+        timeStart = System.nanoTime();
+        byte[] content = IOUtils.toByteArray(decode(body, measure.contentEncoding));
+        this.parse(format, new ByteArrayInputStream(content));
+        measure.parseNanos = System.nanoTime() - timeStart;
+        measure.uncompressedBytes = content.length;
+        return measure;
+    }
+
+    protected void parse(String format, InputStream in) throws Exception {
+        if (WireFormat.Javabin.equalsIgnoreCase(format)) {
+            new BinaryResponseParser().processResponse(in, null);
+        } else if (WireFormat.XML.equalsIgnoreCase(format)) {
+            new XMLResponseParser().processResponse(in, StandardCharsets.UTF_8.name());
+        } else if (WireFormat.JSON.equalsIgnoreCase(format)) {
+            ObjectBuilder.getVal(new JSONParser(new InputStreamReader(in, StandardCharsets.UTF_8)));
+        } else {
+            this._smileMapper.readTree(in);
+        }
+    }
+
+    protected static InputStream decode(byte[] body, String contentEncoding) throws Exception {
+        InputStream in = new ByteArrayInputStream(body);
+        if ("gzip".equalsIgnoreCase(contentEncoding)) {
+            return new GZIPInputStream(in);
+        } else if ("deflate".equalsIgnoreCase(contentEncoding)) {
+            return new InflaterInputStream(in);
+        }
+        return in;
+    }
+
+    protected static class Measure {
+        String contentEncoding;
+        long bytes;
+        long uncompressedBytes;
+        long transferNanos;
+        long parseNanos;
+    }
+}